@@ -0,0 +1,326 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventHandler;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An in-memory cache of passwords retrieved with Safeguard A2A, keyed by API key. A cached
+ * password is returned until its time to live expires, or until an AssetAccountPasswordUpdated
+ * event is received by an A2A event listener of a context using the cache. Retrievals that the
+ * appliance rejected, e.g. because the API key is invalid, are cached for a shorter time so a
+ * bad key does not send every caller to the appliance.
+ * <p>
+ * API keys are only kept as digests and passwords as char arrays that are overwritten when they
+ * are evicted, invalidated or the cache is cleared. The least recently used entries are evicted
+ * when the cache holds more than the configured number of entries.
+ */
+public class A2ACredentialCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE = 300;
+    public static final long DEFAULT_NEGATIVE_TIME_TO_LIVE = 30;
+
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final long negativeTimeToLiveNanos;
+    private final LinkedHashMap<String, CachedCredential> entries;
+    // API key digest to account id, learned from the retrievable accounts
+    private final Map<String, Integer> accounts = new HashMap<>();
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+    // Incremented on every invalidation so a retrieval that raced with one is not cached
+    private long epoch;
+
+    /**
+     * Creates a cache of up to 1000 passwords, kept for 5 minutes, with failures kept for 30 seconds.
+     */
+    public A2ACredentialCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, DEFAULT_NEGATIVE_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries Maximum number of cached API keys.
+     * @param timeToLiveSeconds Number of seconds a password is cached.
+     * @param negativeTimeToLiveSeconds Number of seconds a rejected retrieval is cached, zero to not cache failures.
+     */
+    public A2ACredentialCache(int maxEntries, long timeToLiveSeconds, long negativeTimeToLiveSeconds) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.timeToLiveNanos = TimeUnit.SECONDS.toNanos(Math.max(0, timeToLiveSeconds));
+        this.negativeTimeToLiveNanos = TimeUnit.SECONDS.toNanos(Math.max(0, negativeTimeToLiveSeconds));
+        this.entries = new LinkedHashMap<String, CachedCredential>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCredential> eldest) {
+                if (size() <= A2ACredentialCache.this.maxEntries)
+                    return false;
+                eldest.getValue().clear();
+                evictionCount++;
+                return true;
+            }
+        };
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getTimeToLive() {
+        return TimeUnit.NANOSECONDS.toSeconds(timeToLiveNanos);
+    }
+
+    public long getNegativeTimeToLive() {
+        return TimeUnit.NANOSECONDS.toSeconds(negativeTimeToLiveNanos);
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of retrievals answered from the cache, including cached failures.
+     *
+     * @return Number of cache hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of retrievals that had to go to the appliance.
+     *
+     * @return Number of cache misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the fraction of retrievals answered from the cache.
+     *
+     * @return Hit ratio between 0 and 1.
+     */
+    public synchronized double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the number of entries evicted because the cache was full.
+     *
+     * @return Number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the number of entries removed because their password was updated.
+     *
+     * @return Number of invalidations.
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Removes the cached password of an API key.
+     *
+     * @param apiKey API key corresponding to the configured account.
+     * @throws SafeguardForJavaException General Safeguard for Java exception.
+     */
+    public void invalidate(char[] apiKey) throws SafeguardForJavaException {
+        String key = createKey(apiKey);
+        synchronized (this) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Removes the cached passwords of every API key of an account.
+     *
+     * @param accountId Id of the asset account.
+     */
+    public synchronized void invalidateAccount(int accountId) {
+        for (Map.Entry<String, Integer> account : accounts.entrySet()) {
+            if (account.getValue() == accountId)
+                remove(account.getKey());
+        }
+    }
+
+    /**
+     * Removes and overwrites all cached passwords and resets the statistics.
+     */
+    public synchronized void clear() {
+        for (CachedCredential entry : entries.values()) {
+            entry.clear();
+        }
+        entries.clear();
+        accounts.clear();
+        epoch++;
+        hitCount = 0;
+        missCount = 0;
+        evictionCount = 0;
+        invalidationCount = 0;
+    }
+
+    /**
+     * Gets the cached password of an API key.
+     *
+     * @return A copy of the password, or null if it is not cached.
+     * @throws SafeguardForJavaException The retrieval was rejected and the failure is cached.
+     */
+    char[] get(String key) throws SafeguardForJavaException {
+        CachedCredential entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.created >= (entry.password != null ? timeToLiveNanos : negativeTimeToLiveNanos)) {
+                entries.remove(key);
+                entry.clear();
+                entry = null;
+            }
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+            hitCount++;
+            if (entry.password != null)
+                return entry.password.clone();
+        }
+        throw new SafeguardForJavaException("Error returned from Safeguard API, Error: (cached) "
+                + String.format("%s %s", entry.statusCode, entry.response), entry.statusCode, entry.response);
+    }
+
+    synchronized long getEpoch() {
+        return epoch;
+    }
+
+    synchronized void put(String key, char[] password, long retrievalEpoch) {
+        if (timeToLiveNanos == 0 || retrievalEpoch != epoch)
+            return;
+        CachedCredential previous = entries.put(key, new CachedCredential(password.clone(), 0, null));
+        if (previous != null)
+            previous.clear();
+    }
+
+    synchronized void putFailure(String key, SafeguardForJavaException failure, long retrievalEpoch) {
+        // Only rejections by the appliance are cached, not connection failures or server errors
+        if (negativeTimeToLiveNanos == 0 || retrievalEpoch != epoch || failure.getHttpStatusCode() < 400 || failure.getHttpStatusCode() >= 500)
+            return;
+        CachedCredential previous = entries.put(key, new CachedCredential(null, failure.getHttpStatusCode(), failure.getResponse()));
+        if (previous != null)
+            previous.clear();
+    }
+
+    synchronized void recordAccount(String key, int accountId) {
+        accounts.put(key, accountId);
+    }
+
+    /**
+     * Wraps an A2A event handler so that the AssetAccountPasswordUpdated events it receives
+     * invalidate the cached passwords of the API keys the listener was created for.
+     */
+    ISafeguardEventHandler createInvalidatingHandler(List<char[]> apiKeys, ISafeguardEventHandler handler) throws SafeguardForJavaException {
+        List<String> keys = new ArrayList<>();
+        for (char[] apiKey : apiKeys) {
+            keys.add(createKey(apiKey));
+        }
+        return (eventName, eventBody) -> {
+            onPasswordUpdated(keys, eventBody);
+            if (handler != null)
+                handler.onEventReceived(eventName, eventBody);
+        };
+    }
+
+    private void onPasswordUpdated(List<String> keys, String eventBody) {
+        Integer accountId = null;
+        try {
+            JsonNode node = new ObjectMapper().readTree(eventBody).get("AccountId");
+            if (node != null && node.canConvertToInt())
+                accountId = node.asInt();
+        } catch (IOException | RuntimeException ex) {
+            Logger.getLogger(A2ACredentialCache.class.getName()).log(Level.FINEST, "Unable to parse A2A event body", ex);
+        }
+
+        synchronized (this) {
+            boolean matched = false;
+            if (accountId != null) {
+                for (String key : keys) {
+                    if (accountId.equals(accounts.get(key))) {
+                        remove(key);
+                        matched = true;
+                    }
+                }
+                invalidateAccount(accountId);
+            }
+            if (!matched) {
+                // The account of each API key is not known, so any of them may have been updated
+                for (String key : keys) {
+                    remove(key);
+                }
+            }
+        }
+    }
+
+    private void remove(String key) {
+        epoch++;
+        CachedCredential entry = entries.remove(key);
+        if (entry != null) {
+            entry.clear();
+            invalidationCount++;
+        }
+    }
+
+    static String createKey(char[] apiKey) throws SafeguardForJavaException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(apiKey));
+        byte[] data = Arrays.copyOf(bytes.array(), bytes.limit());
+        Arrays.fill(bytes.array(), (byte) 0);
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new SafeguardForJavaException("Unable to create credential cache key", ex);
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    private static class CachedCredential {
+
+        final char[] password;
+        final int statusCode;
+        final String response;
+        final long created = System.nanoTime();
+
+        CachedCredential(char[] password, int statusCode, String response) {
+            this.password = password;
+            this.statusCode = statusCode;
+            this.response = response;
+        }
+
+        void clear() {
+            if (password != null)
+                Arrays.fill(password, '0');
+        }
+    }
+}
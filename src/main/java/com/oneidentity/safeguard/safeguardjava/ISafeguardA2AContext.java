@@ -1,5 +1,6 @@
 package com.oneidentity.safeguard.safeguardjava;
 
+import com.oneidentity.safeguard.safeguardjava.data.A2APasswordResult;
 import com.oneidentity.safeguard.safeguardjava.data.A2ARetrievableAccount;
 import com.oneidentity.safeguard.safeguardjava.data.BrokeredAccessRequest;
 import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventListener;
@@ -7,11 +8,17 @@ import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
 import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventHandler;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *  This is a reusable interface for calling Safeguard A2A without having to continually
  *  pass the client certificate authentication information.
+ *  <p>
+ *  Methods added after the first release have default implementations so existing
+ *  implementations of this interface keep compiling, their documentation describes the default.
  */
 public interface ISafeguardA2AContext
 {
@@ -24,6 +31,28 @@ public interface ISafeguardA2AContext
      *  @throws SafeguardForJavaException General Safeguard for Java exception.
      */ 
     List<A2ARetrievableAccount> getRetrievableAccounts()  throws ObjectDisposedException, SafeguardForJavaException;
+
+    /**
+     *  Retrieves the list of retrievable accounts of the A2A registrations with the given application
+     *  name. The accounts of the registrations are retrieved concurrently and returned in the order
+     *  of the registrations. The default implementation filters the result of getRetrievableAccounts().
+     
+     *  @param applicationName  Application name of the registrations, case insensitive, or null for all registrations.
+     *  @return          A list of retrievable accounts.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */ 
+    default List<A2ARetrievableAccount> getRetrievableAccounts(String applicationName) throws ObjectDisposedException, SafeguardForJavaException {
+        List<A2ARetrievableAccount> accounts = getRetrievableAccounts();
+        if (applicationName == null || accounts == null)
+            return accounts;
+        List<A2ARetrievableAccount> matching = new ArrayList<>();
+        for (A2ARetrievableAccount account : accounts) {
+            if (applicationName.equalsIgnoreCase(account.getApplicationName()))
+                matching.add(account);
+        }
+        return matching;
+    }
         
     /**
      *  Retrieves a password using Safeguard A2A.
@@ -36,6 +65,145 @@ public interface ISafeguardA2AContext
      */
     char[] retrievePassword(char[] apiKey) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException;
 
+    /**
+     *  Asynchronously retrieves a password using Safeguard A2A. See {@link #retrievePasswordAsync(char[], long)}.
+     *
+     *  @param apiKey   API key corresponding to the configured account.
+     *  @return         Future that completes with the password.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default CompletableFuture<char[]> retrievePasswordAsync(char[] apiKey)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return retrievePasswordAsync(apiKey, 0);
+    }
+
+    /**
+     *  Asynchronously retrieves a password using Safeguard A2A. The request is executed on a
+     *  non-blocking HTTP client with the client certificate of this context, so no thread is held
+     *  while the request is in flight. Passwords in the credential cache are returned without a
+     *  request. If there is a failure the returned future will complete exceptionally with a
+     *  SafeguardForJavaException. Cancelling the returned future, or the timeout expiring,
+     *  aborts the underlying HTTP exchange. The default implementation calls retrievePassword on
+     *  the calling thread and ignores the timeout.
+     *
+     *  @param apiKey           API key corresponding to the configured account.
+     *  @param timeoutMillis    Number of milliseconds to wait for the password, zero to wait without limit.
+     *  @return         Future that completes with the password.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default CompletableFuture<char[]> retrievePasswordAsync(char[] apiKey, long timeoutMillis)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        CompletableFuture<char[]> future = new CompletableFuture<>();
+        try {
+            future.complete(retrievePassword(apiKey));
+        } catch (SafeguardForJavaException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     *  Retrieves many passwords concurrently using Safeguard A2A. See {@link #retrievePasswords(Collection, int)}.
+     *
+     *  @param apiKeys  API keys corresponding to the configured accounts.
+     *  @return         The result of each API key, in the same order as the API keys.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException Interrupted while waiting for the passwords.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default List<A2APasswordResult> retrievePasswords(Collection<char[]> apiKeys)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return retrievePasswords(apiKeys, 1);
+    }
+
+    /**
+     *  Retrieves many passwords concurrently using Safeguard A2A. The retrievals share the pooled
+     *  client certificate connections and the credential cache of this context. A failed retrieval
+     *  does not stop the others, its error is reported in its result. Each result holds its API
+     *  key and a password array of its own, callers should clear() the results once the passwords
+     *  have been used so they do not linger in memory. The default implementation retrieves the
+     *  passwords one after the other on the calling thread.
+     *
+     *  @param apiKeys          API keys corresponding to the configured accounts.
+     *  @param maxParallelism   Maximum number of retrievals in flight at the same time.
+     *  @return         The result of each API key, in the same order as the API keys.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException Interrupted while waiting for the passwords.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default List<A2APasswordResult> retrievePasswords(Collection<char[]> apiKeys, int maxParallelism)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        if (apiKeys == null) {
+            throw new ArgumentException("The apiKeys parameter may not be null");
+        }
+        if (maxParallelism < 1) {
+            throw new ArgumentException("The maxParallelism parameter must be greater than zero");
+        }
+        List<A2APasswordResult> results = new ArrayList<>(apiKeys.size());
+        for (char[] apiKey : apiKeys) {
+            try {
+                results.add(new A2APasswordResult(apiKey, retrievePassword(apiKey)));
+            } catch (ArgumentException | SafeguardForJavaException | RuntimeException ex) {
+                results.add(new A2APasswordResult(apiKey, ex));
+            }
+        }
+        return results;
+    }
+
+    /**
+     *  Retrieves the passwords of all enabled retrievable accounts into the credential cache, e.g.
+     *  when a service starts, so later calls to retrievePassword are answered from the cache. A
+     *  credential cache with the default settings is set if this context has none, that cache
+     *  is cleared when this context is disposed. The default implementation throws
+     *  UnsupportedOperationException.
+     *
+     *  @param applicationName  Application name of the registrations, case insensitive, or null for all registrations.
+     *  @return         The retrievals that failed, with their passwords overwritten.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException Unable to get the retrievable accounts.
+     */
+    default List<A2APasswordResult> warmUpCredentialCache(String applicationName) throws ObjectDisposedException, SafeguardForJavaException {
+        throw new UnsupportedOperationException("warmUpCredentialCache");
+    }
+
+    /**
+     *  Gets the number of retrievePassword calls that did not make their own request because
+     *  a retrieval of the same API key was already in flight on another thread, and were given
+     *  a copy of its password instead. The default implementation returns zero.
+     *
+     *  @return         Number of coalesced password retrievals.
+     */
+    default long getCoalescedRequestCount() {
+        return 0;
+    }
+
+    /**
+     *  Sets the cache used by retrievePassword. Cached passwords are invalidated when an
+     *  AssetAccountPasswordUpdated event is received by an A2A event listener of this context,
+     *  so an event listener should be started for the cached API keys. The cache may be shared
+     *  by several contexts, it is not cleared when this context is disposed. The default
+     *  implementation throws UnsupportedOperationException.
+     *
+     *  @param credentialCache  Credential cache, or null to always retrieve passwords from the appliance.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     */
+    default void setCredentialCache(A2ACredentialCache credentialCache) throws ObjectDisposedException {
+        throw new UnsupportedOperationException("setCredentialCache");
+    }
+
+    /**
+     *  Gets the cache used by retrievePassword. The default implementation returns null.
+     *
+     *  @return         The credential cache, or null if passwords are not cached.
+     */
+    default A2ACredentialCache getCredentialCache() {
+        return null;
+    }
+
     /**
      *  Gets an A2A event listener. The handler passed in will be registered for the AssetAccountPasswordUpdated
      *   event, which is the only one supported in A2A. You just have to call Start(). The event listener returned
@@ -105,6 +273,49 @@ public interface ISafeguardA2AContext
      *  @throws ArgumentException Invalid argument
      */
     String brokerAccessRequest(char[] apiKey, BrokeredAccessRequest accessRequest) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException;
+
+    /**
+     *  Asynchronously creates an access request on behalf of another user using Safeguard A2A.
+     *  See {@link #brokerAccessRequestAsync(char[], BrokeredAccessRequest, long)}.
+     * 
+     *  @param apiKey           API key corresponding to the configured account.
+     *  @param accessRequest    The details of the access request to create.
+     *  @return                 Future that completes with a JSON string representing the new access request.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument
+     */
+    default CompletableFuture<String> brokerAccessRequestAsync(char[] apiKey, BrokeredAccessRequest accessRequest)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return brokerAccessRequestAsync(apiKey, accessRequest, 0);
+    }
+
+    /**
+     *  Asynchronously creates an access request on behalf of another user using Safeguard A2A.
+     *  The request is executed on a non-blocking HTTP client with the client certificate of this
+     *  context. If there is a failure the returned future will complete exceptionally with a
+     *  SafeguardForJavaException. Cancelling the returned future, or the timeout expiring,
+     *  aborts the underlying HTTP exchange. The default implementation calls brokerAccessRequest
+     *  on the calling thread and ignores the timeout.
+     * 
+     *  @param apiKey           API key corresponding to the configured account.
+     *  @param accessRequest    The details of the access request to create.
+     *  @param timeoutMillis    Number of milliseconds to wait for the access request, zero to wait without limit.
+     *  @return                 Future that completes with a JSON string representing the new access request.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument
+     */
+    default CompletableFuture<String> brokerAccessRequestAsync(char[] apiKey, BrokeredAccessRequest accessRequest, long timeoutMillis)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            future.complete(brokerAccessRequest(apiKey, accessRequest));
+        } catch (SafeguardForJavaException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
     
     /**
      *  Dispose of an object
@@ -2,22 +2,35 @@ package com.oneidentity.safeguard.safeguardjava;
 
 import com.oneidentity.safeguard.safeguardjava.data.FullResponse;
 import com.oneidentity.safeguard.safeguardjava.data.Method;
+import com.oneidentity.safeguard.safeguardjava.data.SafeguardBatchResult;
+import com.oneidentity.safeguard.safeguardjava.data.SafeguardRequest;
 import com.oneidentity.safeguard.safeguardjava.data.Service;
 import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventListener;
 import com.oneidentity.safeguard.safeguardjava.event.SafeguardEventListener;
 import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  *  This is the reusable connection interface that can be used to call Safeguard API after
  *  connecting using the API access token obtained during authentication.
+ *  <p>
+ *  Methods added after the first release have default implementations so existing
+ *  implementations of this interface keep compiling, their documentation describes the default.
  */  
 public interface ISafeguardConnection {
 
     /**
-     *  Number of minutes remaining in the lifetime of the Safeguard API access token.
+     *  Number of minutes remaining in the lifetime of the Safeguard API access token. The
+     *  expiry is tracked locally from the token itself, the RSTS login and the remaining
+     *  lifetime reported with each API response, the appliance is only asked when the
+     *  expiry is not known yet.
      *  
      *  @return Remaining token life time
      *  @throws ObjectDisposedException Object has already been disposed.
@@ -25,6 +38,19 @@ public interface ISafeguardConnection {
      */  
     int getAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException;
 
+    /**
+     *  Ask the appliance for the number of minutes remaining in the lifetime of the Safeguard
+     *  API access token, and update the locally tracked expiry with the answer. The default
+     *  implementation returns getAccessTokenLifetimeRemaining().
+     *  
+     *  @return Remaining token life time
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */  
+    default int queryAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
+        return getAccessTokenLifetimeRemaining();
+    }
+
     /**
      *  Request a new Safeguard API access token with the underlying credentials used to 
      *  initial create the connection.
@@ -34,6 +60,38 @@ public interface ISafeguardConnection {
      */  
     void refreshAccessToken() throws ObjectDisposedException, SafeguardForJavaException;
 
+    /**
+     *  Request a new Safeguard API access token only if the current one has expired. Callers
+     *  that find the same expired token share one login, a caller that finds it expired after
+     *  another caller has already replaced it uses the new token. The default implementation
+     *  calls refreshAccessToken() when no lifetime remains, without sharing the login.
+     *  
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */  
+    default void refreshExpiredAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+        refreshExpiredAccessToken(false);
+    }
+
+    /**
+     *  Request a new Safeguard API access token only if the current one has expired, like
+     *  refreshExpiredAccessToken(). The locally tracked expiry does not show a token that was
+     *  revoked on the appliance, e.g. logged out elsewhere, so after a request has failed the
+     *  appliance can be asked whether the token is still valid instead. The default
+     *  implementation calls refreshAccessToken() when no lifetime remains, without sharing
+     *  the login.
+     *  
+     *  @param queryAppliance Whether to ask the appliance for the remaining lifetime.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */  
+    default void refreshExpiredAccessToken(boolean queryAppliance) throws ObjectDisposedException, SafeguardForJavaException {
+        int lifetime = queryAppliance ? queryAccessTokenLifetimeRemaining() : getAccessTokenLifetimeRemaining();
+        if (lifetime == 0) {
+            refreshAccessToken();
+        }
+    }
+
     /**
      *  Call a Safeguard API method and get any response as a string. Some Safeguard API
      *  methods will return an empty body. If there is a failure a SafeguardDotNetException
@@ -75,6 +133,92 @@ public interface ISafeguardConnection {
             Map<String, String> additionalHeaders)
             throws ObjectDisposedException, SafeguardForJavaException, ArgumentException;
 
+    /**
+     *  Call a Safeguard API method and get the response body as a stream. The stream reads
+     *  directly from the HTTP connection so large responses can be processed incrementally
+     *  without being held in memory. The caller must close the returned stream to release
+     *  the connection. A Jackson JsonParser can be created over the stream to read JSON
+     *  responses one element at a time. If there is a failure a SafeguardForJavaException
+     *  will be thrown. The default implementation reads the whole body with invokeMethod()
+     *  and returns a stream over it.
+     *  
+     *  @param service              Safeguard service to call.
+     *  @param method               Safeguard method type to use.
+     *  @param relativeUrl          Relative URL of the service to use.
+     *  @param body                 Request body to pass to the method.
+     *  @param parameters           Additional parameters to add to the URL.
+     *  @param additionalHeaders    Additional headers to add to the request.
+     *  @return                     Response body as a stream that must be closed by the caller.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument.
+     */  
+    default InputStream invokeMethodStream(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters,
+            Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        String response = invokeMethod(service, method, relativeUrl, body, parameters, additionalHeaders);
+        return new ByteArrayInputStream(response == null ? new byte[0] : response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     *  Asynchronously call a Safeguard API method and get any response as a string. The
+     *  request is executed on a non-blocking HTTP client so no thread is held while the
+     *  request is in flight. If there is a failure the returned future will complete
+     *  exceptionally with a SafeguardForJavaException. Cancelling the returned future
+     *  aborts the underlying HTTP exchange. The default implementation uses invokeMethodFullAsync().
+     *  
+     *  @param service              Safeguard service to call.
+     *  @param method               Safeguard method type to use.
+     *  @param relativeUrl          Relative URL of the service to use.
+     *  @param body                 Request body to pass to the method.
+     *  @param parameters           Additional parameters to add to the URL.
+     *  @param additionalHeaders    Additional headers to add to the request.
+     *  @return                     Future that completes with the response body as a string.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument.
+     */  
+    default CompletableFuture<String> invokeMethodAsync(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters,
+            Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return invokeMethodFullAsync(service, method, relativeUrl, body, parameters, additionalHeaders)
+                .thenApply(FullResponse::getBody);
+    }
+
+    /**
+     *  Asynchronously call a Safeguard API method and get a detailed response with status code,
+     *  headers, and body. The request is executed on a non-blocking HTTP client so no thread is
+     *  held while the request is in flight. If there is a failure the returned future will
+     *  complete exceptionally with a SafeguardForJavaException. Cancelling the returned future
+     *  aborts the underlying HTTP exchange. The default implementation calls invokeMethodFull()
+     *  on the calling thread.
+     *  
+     *  @param service              Safeguard service to call.
+     *  @param method               Safeguard method type to use.
+     *  @param relativeUrl          Relative URL of the service to use.
+     *  @param body                 Request body to pass to the method.
+     *  @param parameters           Additional parameters to add to the URL.
+     *  @param additionalHeaders    Additional headers to add to the request.
+     *  @return                     Future that completes with the status code, headers, and body as string.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     *  @throws ArgumentException Invalid argument.
+     */  
+    default CompletableFuture<FullResponse> invokeMethodFullAsync(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters,
+            Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        CompletableFuture<FullResponse> future = new CompletableFuture<>();
+        try {
+            future.complete(invokeMethodFull(service, method, relativeUrl, body, parameters, additionalHeaders));
+        } catch (SafeguardForJavaException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
     /*
      *  Call a Safeguard API method and get any response as a CSV string. Some Safeguard API
      *  methods will return an empty body. If there is a failure a SafeguardDotNetException
@@ -96,6 +240,213 @@ public interface ISafeguardConnection {
         Map<String, String> additionalHeaders)
         throws ObjectDisposedException, SafeguardForJavaException, ArgumentException;
         
+    /**
+     *  Prepare a Safeguard API method that will be called many times. The method, path
+     *  template and static headers are validated and encoded once, and each call only binds
+     *  the path variables, query parameters and body. The default implementation throws
+     *  UnsupportedOperationException.
+     *
+     *  @param service          Safeguard service to call.
+     *  @param method           HTTP method type to use.
+     *  @param pathTemplate     Relative URL with variables in braces, e.g. "Assets/{id}/Accounts".
+     *  @param staticHeaders    Headers to add to every call.
+     *  @return The prepared request.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException The service cannot be called with this connection.
+     *  @throws ArgumentException Invalid path template or header.
+     */
+    default PreparedSafeguardRequest prepareRequest(Service service, Method method, String pathTemplate,
+            Map<String, String> staticHeaders) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        throw new UnsupportedOperationException("prepareRequest");
+    }
+
+    /**
+     *  Call many Safeguard API methods concurrently, using up to eight requests at a time.
+     *  See {@link #invokeBatch(List, int)}.
+     *
+     *  @param requests         Requests to make.
+     *  @return The result of each request, in the same order as the requests.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException Interrupted while waiting for the batch.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default List<SafeguardBatchResult> invokeBatch(List<SafeguardRequest> requests)
+        throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return invokeBatch(requests, SafeguardConnection.DEFAULT_BATCH_PARALLELISM);
+    }
+
+    /**
+     *  Call many Safeguard API methods concurrently. The requests share this connection's
+     *  access token and connection pool, and each is retried according to the retry policy
+     *  of its service. A failed request does not stop the batch, its error is reported in
+     *  its result. If a request fails authentication the requests that have not started
+     *  yet are not made, their results report that the batch was stopped. The default
+     *  implementation throws UnsupportedOperationException.
+     *
+     *  @param requests         Requests to make.
+     *  @param maxParallelism   Maximum number of requests in flight at the same time.
+     *  @return The result of each request, in the same order as the requests.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException Interrupted while waiting for the batch.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default List<SafeguardBatchResult> invokeBatch(List<SafeguardRequest> requests, int maxParallelism)
+        throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        throw new UnsupportedOperationException("invokeBatch");
+    }
+        
+    /**
+     *  Sets the limits of the HTTP connection pool used by this connection. The pool is
+     *  shared process-wide by every connection, clone, authenticator and A2A context for the
+     *  same appliance and TLS settings, so calling this changes the limits for all of them,
+     *  not only for this connection. The per route limit is the maximum number of concurrent
+     *  requests that can be made to the appliance. A new appliance's pool starts with
+     *  RestClient.DEFAULT_MAX_CONNECTIONS_TOTAL connections and
+     *  RestClient.DEFAULT_MAX_CONNECTIONS_PER_ROUTE per route. The default implementation
+     *  throws UnsupportedOperationException.
+     *
+     *  @param maxConnectionsTotal      Maximum number of pooled connections to the appliance.
+     *  @param maxConnectionsPerRoute   Maximum number of pooled connections per route.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default void setConnectionLimits(int maxConnectionsTotal, int maxConnectionsPerRoute)
+            throws ObjectDisposedException, ArgumentException {
+        throw new UnsupportedOperationException("setConnectionLimits");
+    }
+
+    /**
+     *  Enables or disables the HTTP/2 transport for this connection. With HTTP/2 concurrent
+     *  requests to a service are multiplexed over a single TLS connection. HTTP/2 requires
+     *  Java 11 or later and is not used when a validation callback was given, in which case the
+     *  connection stays on HTTP/1.1. If the appliance does not negotiate HTTP/2 the requests
+     *  fall back to HTTP/1.1 automatically. The default implementation throws
+     *  UnsupportedOperationException.
+     *
+     *  @param enabled  Whether to use the HTTP/2 transport.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     */
+    default void setHttp2Enabled(boolean enabled) throws ObjectDisposedException {
+        throw new UnsupportedOperationException("setHttp2Enabled");
+    }
+
+    /**
+     *  Whether this connection is using the HTTP/2 transport. The default implementation
+     *  returns false.
+     *
+     *  @return True if HTTP/2 was enabled and is available in this Java runtime.
+     */
+    default boolean isHttp2Enabled() {
+        return false;
+    }
+
+    /**
+     *  Sets the request body size at which PUT and POST bodies are sent gzip compressed.
+     *  Responses are always requested with gzip or deflate encoding and decompressed as
+     *  they are read. Request compression is disabled by default. The default implementation
+     *  throws UnsupportedOperationException.
+     *
+     *  @param thresholdBytes   Minimum body size in bytes to compress, zero or less to disable.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     */
+    default void setRequestCompressionThreshold(int thresholdBytes) throws ObjectDisposedException {
+        throw new UnsupportedOperationException("setRequestCompressionThreshold");
+    }
+
+    /**
+     *  Sets how calls to a service are retried after a failure to connect, a timeout, a
+     *  connection closed without a response, or a 502, 503 or 504 response. TLS and other
+     *  permanent failures are not retried. Only GET, PUT and DELETE calls are retried. By default calls are retried
+     *  using RetryPolicy.DEFAULT. The number of retries is reported by FullResponse.getRetryCount().
+     *  Asynchronous calls are not retried. The default implementation throws
+     *  UnsupportedOperationException.
+     *
+     *  @param service          Safeguard service the policy applies to.
+     *  @param retryPolicy      Retry policy to use, null to disable retries.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     */
+    default void setRetryPolicy(Service service, RetryPolicy retryPolicy) throws ObjectDisposedException {
+        throw new UnsupportedOperationException("setRetryPolicy");
+    }
+
+    /**
+     *  Gets the retry policy used for calls to a service. The default implementation returns null.
+     *
+     *  @param service          Safeguard service.
+     *  @return The retry policy.
+     */
+    default RetryPolicy getRetryPolicy(Service service) {
+        return null;
+    }
+
+    /**
+     *  Sets the cache used for GET requests made with invokeMethod, invokeMethodFull and
+     *  invokeMethodCsv. Responses with an ETag or Last-Modified header are cached, and the
+     *  next request for the same URL is revalidated with the appliance so an unchanged body
+     *  is not downloaded again. Caching is disabled by default. A cache may be shared by
+     *  several connections. The default implementation throws UnsupportedOperationException.
+     *
+     *  @param responseCache    Cache to use, null to disable caching.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     */
+    default void setResponseCache(SafeguardResponseCache responseCache) throws ObjectDisposedException {
+        throw new UnsupportedOperationException("setResponseCache");
+    }
+
+    /**
+     *  Gets the cache used for GET requests, see {@link #setResponseCache(SafeguardResponseCache)}.
+     *  The default implementation returns null.
+     *
+     *  @return The response cache, or null if caching is disabled.
+     */
+    default SafeguardResponseCache getResponseCache() {
+        return null;
+    }
+
+    /**
+     *  Refreshes the access token in the background before it expires, once three quarters
+     *  of its remaining lifetime have passed. See {@link #enableTokenRefresh(double)}.
+     *
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException The authenticator cannot refresh without user interaction.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default void enableTokenRefresh() throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        enableTokenRefresh(TokenRefreshScheduler.DEFAULT_REFRESH_FRACTION);
+    }
+
+    /**
+     *  Refreshes the access token in the background before it expires. The remaining lifetime
+     *  of the token is read, and the token is refreshed once the given fraction of it has
+     *  passed. Requests that are already in flight keep using the old token. Only connections
+     *  authenticated with a password or certificate can be refreshed. Background refresh stops
+     *  on logOut() and dispose(). The default implementation throws UnsupportedOperationException.
+     *
+     *  @param refreshFraction  Fraction of the remaining lifetime after which to refresh, between 0 and 1.
+     *  @throws ObjectDisposedException Object has already been disposed.
+     *  @throws SafeguardForJavaException The authenticator cannot refresh without user interaction.
+     *  @throws ArgumentException Invalid argument.
+     */
+    default void enableTokenRefresh(double refreshFraction) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        throw new UnsupportedOperationException("enableTokenRefresh");
+    }
+
+    /**
+     *  Stops refreshing the access token in the background. The default implementation does nothing.
+     */
+    default void disableTokenRefresh() {
+    }
+
+    /**
+     *  Gets whether the access token is refreshed in the background. The default implementation
+     *  returns false.
+     *
+     *  @return True if background refresh is enabled.
+     */
+    default boolean isTokenRefreshEnabled() {
+        return false;
+    }
+
     /**
      *  Gets a Safeguard event listener. You will need to call the RegisterEventHandler()
      *  method to establish callbacks. Then, you just have to call Start().  Call Stop()
@@ -127,7 +478,9 @@ public interface ISafeguardConnection {
     /**
      *  Call Safeguard API to invalidate current access token and clear its value from
      *  the connection.  In order to continue using the connection you will need to call
-     *  RefreshAccessToken().
+     *  RefreshAccessToken(). A token kept in the token store may be shared by other
+     *  connections with the same credentials, so it is only removed from the store and
+     *  its session is left to expire rather than invalidated.
      * 
      *  @throws ObjectDisposedException Object has already been disposed.
      */
@@ -0,0 +1,244 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.oneidentity.safeguard.safeguardjava.data.FullResponse;
+import com.oneidentity.safeguard.safeguardjava.data.Method;
+import com.oneidentity.safeguard.safeguardjava.data.SafeguardBatchResult;
+import com.oneidentity.safeguard.safeguardjava.data.SafeguardRequest;
+import com.oneidentity.safeguard.safeguardjava.data.Service;
+import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventListener;
+import com.oneidentity.safeguard.safeguardjava.event.SafeguardEventListener;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A lease on a connection of a {@link SafeguardConnectionPool}. Disposing the lease returns the
+ * connection to the pool, logging out removes the connection from the pool and logs it out.
+ */
+class PooledSafeguardConnection implements ISafeguardConnection {
+
+    private final SafeguardConnectionPool pool;
+    private final SafeguardConnectionPool.Entry entry;
+    private final ISafeguardConnection connection;
+    private volatile boolean disposed;
+
+    PooledSafeguardConnection(SafeguardConnectionPool pool, SafeguardConnectionPool.Entry entry, ISafeguardConnection connection) {
+        this.pool = pool;
+        this.entry = entry;
+        this.connection = connection;
+    }
+
+    private void checkDisposed() throws ObjectDisposedException {
+        if (disposed)
+            throw new ObjectDisposedException("PooledSafeguardConnection");
+    }
+
+    @Override
+    public int getAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
+        checkDisposed();
+        return connection.getAccessTokenLifetimeRemaining();
+    }
+
+    @Override
+    public int queryAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
+        checkDisposed();
+        return connection.queryAccessTokenLifetimeRemaining();
+    }
+
+    @Override
+    public void refreshAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+        checkDisposed();
+        connection.refreshAccessToken();
+    }
+
+    @Override
+    public void refreshExpiredAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+        checkDisposed();
+        connection.refreshExpiredAccessToken();
+    }
+
+    @Override
+    public void refreshExpiredAccessToken(boolean queryAppliance) throws ObjectDisposedException, SafeguardForJavaException {
+        checkDisposed();
+        connection.refreshExpiredAccessToken(queryAppliance);
+    }
+
+    @Override
+    public String invokeMethod(Service service, Method method, String relativeUrl, String body,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeMethod(service, method, relativeUrl, body, parameters, additionalHeaders);
+    }
+
+    @Override
+    public FullResponse invokeMethodFull(Service service, Method method, String relativeUrl, String body,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeMethodFull(service, method, relativeUrl, body, parameters, additionalHeaders);
+    }
+
+    @Override
+    public InputStream invokeMethodStream(Service service, Method method, String relativeUrl, String body,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeMethodStream(service, method, relativeUrl, body, parameters, additionalHeaders);
+    }
+
+    @Override
+    public CompletableFuture<String> invokeMethodAsync(Service service, Method method, String relativeUrl, String body,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeMethodAsync(service, method, relativeUrl, body, parameters, additionalHeaders);
+    }
+
+    @Override
+    public CompletableFuture<FullResponse> invokeMethodFullAsync(Service service, Method method, String relativeUrl, String body,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeMethodFullAsync(service, method, relativeUrl, body, parameters, additionalHeaders);
+    }
+
+    @Override
+    public String invokeMethodCsv(Service service, Method method, String relativeUrl, String body,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeMethodCsv(service, method, relativeUrl, body, parameters, additionalHeaders);
+    }
+
+    @Override
+    public PreparedSafeguardRequest prepareRequest(Service service, Method method, String pathTemplate,
+            Map<String, String> staticHeaders) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.prepareRequest(service, method, pathTemplate, staticHeaders);
+    }
+
+    @Override
+    public List<SafeguardBatchResult> invokeBatch(List<SafeguardRequest> requests)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeBatch(requests);
+    }
+
+    @Override
+    public List<SafeguardBatchResult> invokeBatch(List<SafeguardRequest> requests, int maxParallelism)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        return connection.invokeBatch(requests, maxParallelism);
+    }
+
+    @Override
+    public void setConnectionLimits(int maxConnectionsTotal, int maxConnectionsPerRoute)
+            throws ObjectDisposedException, ArgumentException {
+        checkDisposed();
+        connection.setConnectionLimits(maxConnectionsTotal, maxConnectionsPerRoute);
+    }
+
+    @Override
+    public void setHttp2Enabled(boolean enabled) throws ObjectDisposedException {
+        checkDisposed();
+        connection.setHttp2Enabled(enabled);
+    }
+
+    @Override
+    public boolean isHttp2Enabled() {
+        return connection.isHttp2Enabled();
+    }
+
+    @Override
+    public void setRequestCompressionThreshold(int thresholdBytes) throws ObjectDisposedException {
+        checkDisposed();
+        connection.setRequestCompressionThreshold(thresholdBytes);
+    }
+
+    @Override
+    public void setRetryPolicy(Service service, RetryPolicy retryPolicy) throws ObjectDisposedException {
+        checkDisposed();
+        connection.setRetryPolicy(service, retryPolicy);
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy(Service service) {
+        return connection.getRetryPolicy(service);
+    }
+
+    @Override
+    public void setResponseCache(SafeguardResponseCache responseCache) throws ObjectDisposedException {
+        checkDisposed();
+        connection.setResponseCache(responseCache);
+    }
+
+    @Override
+    public SafeguardResponseCache getResponseCache() {
+        return connection.getResponseCache();
+    }
+
+    @Override
+    public void enableTokenRefresh() throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        connection.enableTokenRefresh();
+    }
+
+    @Override
+    public void enableTokenRefresh(double refreshFraction) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        checkDisposed();
+        connection.enableTokenRefresh(refreshFraction);
+    }
+
+    @Override
+    public void disableTokenRefresh() {
+        connection.disableTokenRefresh();
+    }
+
+    @Override
+    public boolean isTokenRefreshEnabled() {
+        return connection.isTokenRefreshEnabled();
+    }
+
+    @Override
+    public SafeguardEventListener getEventListener() throws ObjectDisposedException, ArgumentException {
+        checkDisposed();
+        return connection.getEventListener();
+    }
+
+    @Override
+    public ISafeguardEventListener getPersistentEventListener() throws ObjectDisposedException, SafeguardForJavaException {
+        checkDisposed();
+        return connection.getPersistentEventListener();
+    }
+
+    /**
+     * Removes the connection from the pool and logs it out. Other leases on the same connection
+     * can no longer use it.
+     */
+    @Override
+    public void logOut() throws ObjectDisposedException {
+        synchronized (this) {
+            checkDisposed();
+            disposed = true;
+        }
+        pool.invalidate(entry);
+    }
+
+    /**
+     * Returns the connection to the pool, the lease can no longer be used.
+     */
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            if (disposed)
+                return;
+            disposed = true;
+        }
+        pool.release(entry);
+    }
+}
@@ -0,0 +1,224 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.oneidentity.safeguard.safeguardjava.data.FullResponse;
+import com.oneidentity.safeguard.safeguardjava.data.JsonBody;
+import com.oneidentity.safeguard.safeguardjava.data.Method;
+import com.oneidentity.safeguard.safeguardjava.data.Service;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import com.oneidentity.safeguard.safeguardjava.restclient.RestClient;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * A Safeguard API call that is validated and encoded once and then invoked many times. The
+ * relative URL is a path template whose variables, e.g. {id} in "Assets/{id}/Accounts", are
+ * bound with URL encoded values on each call. The service, HTTP method, URL prefix and static
+ * headers are resolved when the request is prepared, and the Authorization header is only
+ * rebuilt when the connection's access token changes.
+ * <p>
+ * Prepared requests are created with {@link ISafeguardConnection#prepareRequest}, are thread
+ * safe and use the connection's retry policy for their service. They do not use the response cache.
+ */
+public class PreparedSafeguardRequest {
+
+    private final SafeguardConnection connection;
+    private final RestClient client;
+    private final Service service;
+    private final Method method;
+    private final String httpMethod;
+    private final String pathTemplate;
+    private final String urlPrefix;
+    private final String[] literals;
+    private final String[] variables;
+    private final Header[] staticHeaders;
+    private final boolean sendAuthorization;
+    private final URI fixedUri;
+
+    PreparedSafeguardRequest(SafeguardConnection connection, RestClient client, Service service, Method method,
+            String pathTemplate, Map<String, String> staticHeaders) throws ArgumentException {
+
+        if (pathTemplate.indexOf('?') >= 0)
+            throw new ArgumentException("Parameter pathTemplate may not contain a query, pass the query as parameters");
+
+        this.connection = connection;
+        this.client = client;
+        this.service = service;
+        this.method = method;
+        this.httpMethod = method.toString().toUpperCase();
+        this.pathTemplate = pathTemplate;
+        this.urlPrefix = client.getBaseURL() + "/";
+
+        List<String> literalList = new ArrayList<>();
+        List<String> variableList = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int start = pathTemplate.indexOf('{', position);
+            if (start < 0)
+                break;
+            int end = pathTemplate.indexOf('}', start);
+            if (end < 0 || end == start + 1)
+                throw new ArgumentException(String.format("Invalid variable in path template %s", pathTemplate));
+            literalList.add(pathTemplate.substring(position, start));
+            variableList.add(pathTemplate.substring(start + 1, end));
+            position = end + 1;
+        }
+        literalList.add(pathTemplate.substring(position));
+        this.literals = literalList.toArray(new String[0]);
+        this.variables = variableList.toArray(new String[0]);
+
+        List<Header> headers = new ArrayList<>();
+        boolean hasAccept = false, hasAcceptEncoding = false, hasContentType = false, hasAuthorization = false;
+        if (staticHeaders != null) {
+            for (Map.Entry<String, String> entry : staticHeaders.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null)
+                    throw new ArgumentException("Static header names and values may not be null");
+                hasAccept |= HttpHeaders.ACCEPT.equalsIgnoreCase(entry.getKey());
+                hasAcceptEncoding |= HttpHeaders.ACCEPT_ENCODING.equalsIgnoreCase(entry.getKey());
+                hasContentType |= HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(entry.getKey());
+                hasAuthorization |= HttpHeaders.AUTHORIZATION.equalsIgnoreCase(entry.getKey());
+                headers.add(new BasicHeader(entry.getKey(), entry.getValue()));
+            }
+        }
+        if (!hasAccept)
+            headers.add(new BasicHeader(HttpHeaders.ACCEPT, "application/json"));
+        if (!hasAcceptEncoding)
+            headers.add(new BasicHeader(HttpHeaders.ACCEPT_ENCODING, RestClient.ACCEPT_ENCODING));
+        if (!hasContentType)
+            headers.add(new BasicHeader(HttpHeaders.CONTENT_TYPE, "application/json"));
+        this.sendAuthorization = !hasAuthorization && !connection.isAnonymous();
+        if (sendAuthorization)
+            headers.add(new BasicHeader(SafeguardConnection.TOKEN_LIFETIME_HEADER, ""));
+        this.staticHeaders = headers.toArray(new Header[0]);
+
+        // Validate the template once with placeholder values so later failures can only come from bound values
+        StringBuilder sample = new StringBuilder(urlPrefix).append(literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            sample.append('x').append(literals[i + 1]);
+        }
+        try {
+            URI uri = URI.create(sample.toString());
+            this.fixedUri = variables.length == 0 ? uri : null;
+        } catch (IllegalArgumentException ex) {
+            throw new ArgumentException(String.format("Invalid path template %s", pathTemplate));
+        }
+    }
+
+    public Service getService() {
+        return service;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public String getPathTemplate() {
+        return pathTemplate;
+    }
+
+    /**
+     * Gets the names of the variables in the path template, in the order they appear.
+     *
+     * @return Variable names.
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    /**
+     * Call the prepared Safeguard API method.
+     *
+     * @param pathVariables     Values of the path template variables, or null if there are none.
+     * @param parameters        Additional parameters to add to the URL.
+     * @param body              Request body to pass to the method.
+     * @return Response body as a string.
+     * @throws ObjectDisposedException The connection has already been disposed.
+     * @throws SafeguardForJavaException General Safeguard for Java exception.
+     * @throws ArgumentException A path variable is missing.
+     */
+    public String invoke(Map<String, String> pathVariables, Map<String, String> parameters, String body)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return invokeFull(pathVariables, parameters, body).getBody();
+    }
+
+    /**
+     * Call the prepared Safeguard API method and get a detailed response.
+     *
+     * @param pathVariables     Values of the path template variables, or null if there are none.
+     * @param parameters        Additional parameters to add to the URL.
+     * @param body              Request body to pass to the method.
+     * @return Response with status code, headers, and body as string.
+     * @throws ObjectDisposedException The connection has already been disposed.
+     * @throws SafeguardForJavaException General Safeguard for Java exception.
+     * @throws ArgumentException A path variable is missing.
+     */
+    public FullResponse invokeFull(Map<String, String> pathVariables, Map<String, String> parameters, String body)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        connection.checkCanInvoke();
+
+        URI uri = buildUri(pathVariables, parameters);
+        Header[] headers = staticHeaders;
+        char[] accessToken = null;
+        if (sendAuthorization) {
+            SafeguardConnection.AuthorizationHeader authorization = connection.getAuthorizationHeader();
+            accessToken = authorization.accessToken;
+            headers = Arrays.copyOf(staticHeaders, staticHeaders.length + 1);
+            headers[staticHeaders.length] = authorization.header;
+        }
+        JsonBody requestEntity = method == Method.Post || method == Method.Put ? new JsonBody(body) : null;
+
+        if (Logger.getLogger(PreparedSafeguardRequest.class.getName()).isLoggable(Level.FINEST)) {
+            Logger.getLogger(PreparedSafeguardRequest.class.getName()).log(Level.FINEST,
+                    String.format("Invoking prepared method: %s %s", httpMethod, uri));
+        }
+
+        final Header[] requestHeaders = headers;
+        SafeguardConnection.ExecutedRequest request = connection.executeWithRetry(client, connection.getRetryPolicy(service),
+                method, pathTemplate, accessToken, () -> client.execRequest(httpMethod, uri, requestHeaders, requestEntity));
+        FullResponse fullResponse = connection.createFullResponse(request.response, request.accessToken);
+        fullResponse.setRetryCount(request.retries);
+        return fullResponse;
+    }
+
+    private URI buildUri(Map<String, String> pathVariables, Map<String, String> parameters) throws ArgumentException {
+
+        boolean hasParameters = parameters != null && !parameters.isEmpty();
+        if (fixedUri != null && !hasParameters)
+            return fixedUri;
+
+        StringBuilder url = new StringBuilder(urlPrefix).append(literals[0]);
+        try {
+            for (int i = 0; i < variables.length; i++) {
+                String value = pathVariables == null ? null : pathVariables.get(variables[i]);
+                if (value == null)
+                    throw new ArgumentException(String.format("No value for path variable %s", variables[i]));
+                url.append(URLEncoder.encode(value, "UTF-8").replace("+", "%20")).append(literals[i + 1]);
+            }
+            if (hasParameters) {
+                char separator = '?';
+                for (Map.Entry<String, String> entry : parameters.entrySet()) {
+                    url.append(separator).append(URLEncoder.encode(entry.getKey(), "UTF-8"));
+                    if (entry.getValue() != null)
+                        url.append('=').append(URLEncoder.encode(entry.getValue(), "UTF-8"));
+                    separator = '&';
+                }
+            }
+        } catch (UnsupportedEncodingException ex) {
+            throw new ArgumentException("UTF-8 encoding is not supported");
+        }
+        return URI.create(url.toString());
+    }
+}
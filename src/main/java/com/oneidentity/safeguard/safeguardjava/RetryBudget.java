@@ -0,0 +1,74 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+/**
+ * Limits the number of retries so that they cannot amplify an outage. The budget holds a number
+ * of tokens: every retryable failure removes one token and every successful call adds back a
+ * fraction of a token. Retries are only allowed while more than half of the tokens remain, so
+ * once most calls to the appliance are failing the clients stop retrying until calls succeed again.
+ * <p>
+ * By default all connections share the global budget.
+ */
+public class RetryBudget {
+
+    public static final int DEFAULT_MAX_TOKENS = 10;
+    public static final double DEFAULT_TOKEN_RATIO = 0.1;
+
+    private static final RetryBudget global = new RetryBudget(DEFAULT_MAX_TOKENS, DEFAULT_TOKEN_RATIO);
+
+    private final double maxTokens;
+    private final double tokenRatio;
+    private double tokens;
+
+    /**
+     * Creates a retry budget.
+     *
+     * @param maxTokens Number of tokens in a full budget.
+     * @param tokenRatio Fraction of a token added back by every successful call.
+     */
+    public RetryBudget(int maxTokens, double tokenRatio) {
+        this.maxTokens = maxTokens;
+        this.tokenRatio = tokenRatio;
+        this.tokens = maxTokens;
+    }
+
+    /**
+     * Gets the budget shared by all connections that do not specify their own.
+     *
+     * @return The global retry budget.
+     */
+    public static RetryBudget getGlobal() {
+        return global;
+    }
+
+    /**
+     * Records a successful call.
+     */
+    public synchronized void onSuccess() {
+        tokens = Math.min(maxTokens, tokens + tokenRatio);
+    }
+
+    /**
+     * Records a call that failed with a retryable error.
+     */
+    public synchronized void onFailure() {
+        tokens = Math.max(0, tokens - 1);
+    }
+
+    /**
+     * Gets whether a failed call may be retried.
+     *
+     * @return True if enough of the budget remains to retry.
+     */
+    public synchronized boolean canRetry() {
+        return tokens > maxTokens / 2;
+    }
+
+    /**
+     * Gets the number of tokens remaining.
+     *
+     * @return Remaining tokens.
+     */
+    public synchronized double getTokens() {
+        return tokens;
+    }
+}
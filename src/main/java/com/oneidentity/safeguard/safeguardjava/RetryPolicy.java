@@ -0,0 +1,150 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.oneidentity.safeguard.safeguardjava.data.Method;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.http.NoHttpResponseException;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Describes how a Safeguard API call is retried after a transient failure. Only idempotent
+ * methods (GET, PUT and DELETE) are retried, after a failure to connect, a timeout, a connection
+ * closed without a response, or a 502, 503 or 504 response. Permanent failures such as TLS
+ * handshake or certificate errors are not retried. The delay before each retry grows exponentially and is randomized (full jitter) so
+ * that many clients do not retry in lock step. Retries are also limited by a {@link RetryBudget}.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 200;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 5000;
+
+    /**
+     * The policy used when none has been set, retrying up to twice using the global budget.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(DEFAULT_MAX_RETRIES, DEFAULT_INITIAL_BACKOFF_MILLIS,
+            DEFAULT_MAX_BACKOFF_MILLIS);
+
+    /**
+     * A policy that never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final RetryBudget budget;
+
+    /**
+     * Creates a retry policy that uses the global retry budget.
+     *
+     * @param maxRetries Maximum number of retries of a single call.
+     * @param initialBackoffMillis Upper bound of the delay before the first retry.
+     * @param maxBackoffMillis Upper bound of the delay before any retry.
+     */
+    public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+        this(maxRetries, initialBackoffMillis, maxBackoffMillis, RetryBudget.getGlobal());
+    }
+
+    /**
+     * Creates a retry policy.
+     *
+     * @param maxRetries Maximum number of retries of a single call.
+     * @param initialBackoffMillis Upper bound of the delay before the first retry.
+     * @param maxBackoffMillis Upper bound of the delay before any retry.
+     * @param budget Budget that limits retries across calls, or null for no limit.
+     */
+    public RetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis, RetryBudget budget) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialBackoffMillis = Math.max(0, initialBackoffMillis);
+        this.maxBackoffMillis = Math.max(this.initialBackoffMillis, maxBackoffMillis);
+        this.budget = budget;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getInitialBackoffMillis() {
+        return initialBackoffMillis;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public RetryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Gets whether calls using a method may be retried.
+     *
+     * @param method The HTTP method.
+     * @return True for idempotent methods.
+     */
+    public boolean isRetryableMethod(Method method) {
+        return method == Method.Get || method == Method.Put || method == Method.Delete;
+    }
+
+    /**
+     * Gets whether a response status code indicates a transient failure.
+     *
+     * @param statusCode The HTTP status code.
+     * @return True for 502, 503 and 504.
+     */
+    public boolean isRetryableStatus(int statusCode) {
+        return statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Gets whether an exception thrown by a request indicates a transient failure.
+     *
+     * @param ex The exception.
+     * @return True for connection failures, timeouts and connections closed without a response.
+     */
+    public boolean isRetryableException(Exception ex) {
+        return ex instanceof ConnectException || ex instanceof ConnectTimeoutException
+                || ex instanceof SocketTimeoutException || ex instanceof NoHttpResponseException;
+    }
+
+    /**
+     * Gets whether an attempt that failed with a retryable error may be retried. The failure is
+     * only recorded in the budget when the method and the number of retries allow a retry, so
+     * calls that could never be retried do not use up the budget of other calls.
+     *
+     * @param method The HTTP method.
+     * @param retries Number of retries already made.
+     * @return True if the call should be retried.
+     */
+    public boolean shouldRetry(Method method, int retries) {
+        if (!isRetryableMethod(method) || retries >= maxRetries)
+            return false;
+        if (budget == null)
+            return true;
+        budget.onFailure();
+        return budget.canRetry();
+    }
+
+    /**
+     * Records a successful attempt in the budget.
+     */
+    public void onSuccess() {
+        if (budget != null)
+            budget.onSuccess();
+    }
+
+    /**
+     * Gets the randomized delay before a retry.
+     *
+     * @param retries Number of retries already made.
+     * @return Delay in milliseconds.
+     */
+    public long getBackoffMillis(int retries) {
+        long ceiling = initialBackoffMillis << Math.min(retries, 30);
+        if (ceiling <= 0 || ceiling > maxBackoffMillis)
+            ceiling = maxBackoffMillis;
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -4,6 +4,7 @@ import com.oneidentity.safeguard.safeguardjava.authentication.AccessTokenAuthent
 import com.oneidentity.safeguard.safeguardjava.authentication.AnonymousAuthenticator;
 import com.oneidentity.safeguard.safeguardjava.authentication.CertificateAuthenticator;
 import com.oneidentity.safeguard.safeguardjava.authentication.IAuthenticationMechanism;
+import com.oneidentity.safeguard.safeguardjava.authentication.ITokenStore;
 import com.oneidentity.safeguard.safeguardjava.authentication.PasswordAuthenticator;
 import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventListener;
 import com.oneidentity.safeguard.safeguardjava.event.PersistentSafeguardA2AEventListener;
@@ -22,10 +23,34 @@ public final class Safeguard {
 
     private static final int DEFAULTAPIVERSION = 3;
 
+    private static volatile ITokenStore tokenStore;
+
     private Safeguard() {
 
     }
 
+    /**
+     *  Sets the store used to keep the access tokens of password and certificate connections,
+     *  so that later connections with the same credentials, in this or another process, reuse
+     *  a token that is still valid instead of logging in again. Connections that use the
+     *  same stored token share its session, so logging out one of them removes the token
+     *  from the store without invalidating the session the others are still using.
+     *
+     *  @param store Token store, or null to stop storing tokens.
+     */
+    public static void setTokenStore(ITokenStore store) {
+        tokenStore = store;
+    }
+
+    /**
+     *  Gets the store used to keep the access tokens of password and certificate connections.
+     *
+     *  @return Token store, or null if tokens are not stored.
+     */
+    public static ITokenStore getTokenStore() {
+        return tokenStore;
+    }
+
     private static SafeguardConnection getConnection(IAuthenticationMechanism authenticationMechanism) throws ObjectDisposedException, SafeguardForJavaException {
         authenticationMechanism.refreshAccessToken();
         return new SafeguardConnection(authenticationMechanism);
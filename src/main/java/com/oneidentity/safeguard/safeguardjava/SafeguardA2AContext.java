@@ -1,6 +1,7 @@
 package com.oneidentity.safeguard.safeguardjava;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneidentity.safeguard.safeguardjava.data.A2APasswordResult;
 import com.oneidentity.safeguard.safeguardjava.data.A2ARegistration;
 import com.oneidentity.safeguard.safeguardjava.data.A2ARetrievableAccount;
 import com.oneidentity.safeguard.safeguardjava.data.A2ARetrievableAccountInternal;
@@ -21,12 +22,32 @@ import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventHandler;
 import com.oneidentity.safeguard.safeguardjava.event.PersistentSafeguardA2AEventListener;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import javax.net.ssl.HostnameVerifier;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.CloseableHttpResponse;
 
 public class SafeguardA2AContext implements ISafeguardA2AContext {
 
+    private static final int DEFAULT_PARALLELISM = 8;
+    private static ScheduledExecutorService timeoutScheduler;
+
     private boolean disposed;
 
     private final String networkAddress;
@@ -38,6 +59,15 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
     private final RestClient a2AClient;
     private final RestClient coreClient;
 
+    private volatile A2ACredentialCache credentialCache;
+    // Only the cache created by warmUpCredentialCache is owned and cleared when this context is disposed,
+    // caches set by the caller and the cache shared with clones are left alone
+    private boolean ownsCredentialCache;
+
+    // Password retrievals in flight by API key digest, concurrent retrievals of the same key share one request
+    private final Map<String, PendingRetrieval> pendingRetrievals = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedRequestCount = new AtomicLong();
+
     
     public SafeguardA2AContext(String networkAddress, CertificateContext clientCertificate, int apiVersion, boolean ignoreSsl, HostnameVerifier validationCallback) {
         this.networkAddress = networkAddress;
@@ -74,13 +104,16 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
 
     @Override
     public List<A2ARetrievableAccount> getRetrievableAccounts()  throws ObjectDisposedException, SafeguardForJavaException {
+        return getRetrievableAccounts(null);
+    }
+
+    @Override
+    public List<A2ARetrievableAccount> getRetrievableAccounts(String applicationName) throws ObjectDisposedException, SafeguardForJavaException {
         
         if (disposed) {
             throw new ObjectDisposedException("SafeguardA2AContext");
         }
 
-        List<A2ARetrievableAccount> list = new ArrayList<>();
-
         Map<String, String> headers = new HashMap<>();
         headers.put("Accept", "application/json");
 
@@ -94,47 +127,77 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
         
         String reply = Utils.getResponse(response);
         if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) 
-            throw new SafeguardForJavaException(String.format("Error returned from Safeguard API, Error: %s %s", response.getStatusLine().getStatusCode(), reply));
-        
+            throw new SafeguardForJavaException(String.format("Error returned from Safeguard API, Error: %s %s", response.getStatusLine().getStatusCode(), reply),
+                    response.getStatusLine().getStatusCode(), reply);
         
         List<A2ARegistration> registrations = parseA2ARegistationResponse(reply);
-        
-        for (A2ARegistration registration : registrations) {
-            
-            int registrationId = registration.getId();
+        if (registrations == null)
+            throw new SafeguardForJavaException("Unable to parse the A2A registrations");
+        if (applicationName != null) {
+            List<A2ARegistration> matching = new ArrayList<>();
+            for (A2ARegistration registration : registrations) {
+                if (applicationName.equalsIgnoreCase(registration.getAppName()))
+                    matching.add(registration);
+            }
+            registrations = matching;
+        }
+
+        // Each registration fills its own slot so the result keeps the registration order
+        AtomicReferenceArray<List<A2ARetrievableAccount>> results = new AtomicReferenceArray<>(registrations.size());
+        final List<A2ARegistration> pending = registrations;
+        runConcurrently(results.length(), DEFAULT_PARALLELISM, "SafeguardA2ARetrievableAccounts",
+                index -> results.set(index, getRegistrationAccounts(pending.get(index), headers, parameters)));
+
+        List<A2ARetrievableAccount> list = new ArrayList<>();
+        for (int i = 0; i < results.length(); i++) {
+            list.addAll(results.get(i));
+        }
+        return list;
+    }
+
+    private List<A2ARetrievableAccount> getRegistrationAccounts(A2ARegistration registration, Map<String, String> headers,
+            Map<String, String> parameters) throws SafeguardForJavaException {
+
+        List<A2ARetrievableAccount> list = new ArrayList<>();
+        int registrationId = registration.getId();
             
-            response = coreClient.execGET(String.format("A2ARegistrations/%d/RetrievableAccounts", registrationId), 
-                    parameters, headers, clientCertificate);
+        CloseableHttpResponse response = coreClient.execGET(String.format("A2ARegistrations/%d/RetrievableAccounts", registrationId), 
+                parameters, headers, clientCertificate);
             
-            if (response == null) {
-                throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", a2AClient.getBaseURL()));
-            }
+        if (response == null) {
+            throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", a2AClient.getBaseURL()));
+        }
             
-            reply = Utils.getResponse(response);
-            if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) 
-                throw new SafeguardForJavaException(String.format("Error returned from Safeguard API, Error: %s %s", response.getStatusLine().getStatusCode(), reply));
+        String reply = Utils.getResponse(response);
+        if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) 
+            throw new SafeguardForJavaException(String.format("Error returned from Safeguard API, Error: %s %s", response.getStatusLine().getStatusCode(), reply),
+                    response.getStatusLine().getStatusCode(), reply);
         
-            List<A2ARetrievableAccountInternal> retrievals = parseA2ARetrievableAccountResponse(reply);
+        List<A2ARetrievableAccountInternal> retrievals = parseA2ARetrievableAccountResponse(reply);
+        if (retrievals == null)
+            throw new SafeguardForJavaException(String.format("Unable to parse the retrievable accounts of A2A registration %d", registrationId));
             
-            for (A2ARetrievableAccountInternal retrieval : retrievals)
-            {
-                A2ARetrievableAccount account = new A2ARetrievableAccount();
-                account.setApplicationName(registration.getAppName());
-                account.setDescription(registration.getDescription());
-                account.setDisabled(registration.isDisabled() || retrieval.isAccountDisabled());
-                account.setAccountId(retrieval.getAccountId());
-                account.setApiKey(retrieval.getApiKey().toCharArray());
-                account.setAssetId(retrieval.getSystemId());
-                account.setAssetName(retrieval.getSystemName());
-                account.setAssetDescription(retrieval.getAssetDescription());
-                account.setAccountId(retrieval.getAccountId());
-                account.setAccountName(retrieval.getAccountName());
-                account.setDomainName(retrieval.getDomainName());
-                account.setAccountType(retrieval.getAccountType());
-                account.setAccountDescription(retrieval.getAccountDescription());
-                
-                list.add(account);
-            }
+        A2ACredentialCache cache = credentialCache;
+        for (A2ARetrievableAccountInternal retrieval : retrievals)
+        {
+            A2ARetrievableAccount account = new A2ARetrievableAccount();
+            account.setApplicationName(registration.getAppName());
+            account.setDescription(registration.getDescription());
+            account.setDisabled(registration.isDisabled() || retrieval.isAccountDisabled());
+            account.setAccountId(retrieval.getAccountId());
+            account.setApiKey(retrieval.getApiKey().toCharArray());
+            account.setAssetId(retrieval.getSystemId());
+            account.setAssetName(retrieval.getSystemName());
+            account.setAssetDescription(retrieval.getAssetDescription());
+            account.setAccountId(retrieval.getAccountId());
+            account.setAccountName(retrieval.getAccountName());
+            account.setDomainName(retrieval.getDomainName());
+            account.setAccountType(retrieval.getAccountType());
+            account.setAccountDescription(retrieval.getAccountDescription());
+            
+            if (cache != null && retrieval.getApiKey() != null)
+                cache.recordAccount(A2ACredentialCache.createKey(account.getApiKey()), retrieval.getAccountId());
+            list.add(account);
         }
         return list;
     }
@@ -150,6 +213,252 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
             throw new ArgumentException("The apiKey parameter may not be null");
         }
 
+        String key = A2ACredentialCache.createKey(apiKey);
+        A2ACredentialCache cache = credentialCache;
+        if (cache == null)
+            return retrievePasswordCoalesced(key, apiKey);
+
+        char[] password = cache.get(key);
+        if (password != null)
+            return password;
+        long epoch = cache.getEpoch();
+        try {
+            password = retrievePasswordCoalesced(key, apiKey);
+        } catch (SafeguardForJavaException ex) {
+            cache.putFailure(key, ex, epoch);
+            throw ex;
+        }
+        cache.put(key, password, epoch);
+        return password;
+    }
+
+    @Override
+    public CompletableFuture<char[]> retrievePasswordAsync(char[] apiKey)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return retrievePasswordAsync(apiKey, 0);
+    }
+
+    @Override
+    public CompletableFuture<char[]> retrievePasswordAsync(char[] apiKey, long timeoutMillis)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardA2AContext");
+        }
+        if (apiKey == null) {
+            throw new ArgumentException("The apiKey parameter may not be null");
+        }
+        if (timeoutMillis < 0) {
+            throw new ArgumentException("The timeoutMillis parameter may not be negative");
+        }
+
+        A2ACredentialCache cache = credentialCache;
+        String key = null;
+        long epoch = 0;
+        if (cache != null) {
+            key = A2ACredentialCache.createKey(apiKey);
+            try {
+                char[] password = cache.get(key);
+                if (password != null)
+                    return CompletableFuture.completedFuture(password);
+            } catch (SafeguardForJavaException ex) {
+                CompletableFuture<char[]> failed = new CompletableFuture<>();
+                failed.completeExceptionally(ex);
+                return failed;
+            }
+            epoch = cache.getEpoch();
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Authorization", String.format("A2A %s", new String(apiKey)));
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("type", "Password");
+
+        final String cacheKey = key;
+        final long cacheEpoch = epoch;
+        CompletableFuture<HttpResponse> exchange = a2AClient.execGETAsync("Credentials", parameters, headers, clientCertificate);
+        CompletableFuture<char[]> result = exchange.handle((response, ex) -> {
+            try {
+                char[] password = getAsyncReply(response, ex).replaceAll("\"", "").toCharArray();
+                if (cache != null)
+                    cache.put(cacheKey, password, cacheEpoch);
+                return password;
+            } catch (SafeguardForJavaException sfex) {
+                if (cache != null)
+                    cache.putFailure(cacheKey, sfex, cacheEpoch);
+                throw new CompletionException(sfex);
+            }
+        });
+        return completeWithin(result, exchange, timeoutMillis);
+    }
+
+    @Override
+    public List<A2APasswordResult> retrievePasswords(Collection<char[]> apiKeys)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return retrievePasswords(apiKeys, DEFAULT_PARALLELISM);
+    }
+
+    @Override
+    public List<A2APasswordResult> retrievePasswords(Collection<char[]> apiKeys, int maxParallelism)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardA2AContext");
+        }
+        if (apiKeys == null) {
+            throw new ArgumentException("The apiKeys parameter may not be null");
+        }
+        if (maxParallelism < 1) {
+            throw new ArgumentException("The maxParallelism parameter must be greater than zero");
+        }
+
+        List<char[]> keys = new ArrayList<>(apiKeys);
+        A2APasswordResult[] results = new A2APasswordResult[keys.size()];
+        runConcurrently(results.length, maxParallelism, "SafeguardA2ARetrievePasswords", index -> {
+            char[] apiKey = keys.get(index);
+            try {
+                results[index] = new A2APasswordResult(apiKey, retrievePassword(apiKey));
+            } catch (ObjectDisposedException | ArgumentException | SafeguardForJavaException | RuntimeException ex) {
+                results[index] = new A2APasswordResult(apiKey, ex);
+            }
+        });
+
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<A2APasswordResult> warmUpCredentialCache(String applicationName)
+            throws ObjectDisposedException, SafeguardForJavaException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardA2AContext");
+        }
+        synchronized (this) {
+            if (credentialCache == null) {
+                credentialCache = new A2ACredentialCache();
+                ownsCredentialCache = true;
+            }
+        }
+
+        List<char[]> apiKeys = new ArrayList<>();
+        for (A2ARetrievableAccount account : getRetrievableAccounts(applicationName)) {
+            if (!account.isDisabled() && account.getApiKey() != null)
+                apiKeys.add(account.getApiKey());
+        }
+
+        List<A2APasswordResult> failures = new ArrayList<>();
+        List<A2APasswordResult> results;
+        try {
+            results = retrievePasswords(apiKeys);
+        } catch (ArgumentException ex) {
+            throw new SafeguardForJavaException("Unable to retrieve the passwords of the retrievable accounts", ex);
+        }
+        for (A2APasswordResult result : results) {
+            // The cache holds its own copy of each password
+            result.clear();
+            if (!result.isSuccessful())
+                failures.add(result);
+        }
+        Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.FINEST, 
+                String.format("Warmed up the credential cache with %d of %d passwords", results.size() - failures.size(), results.size()));
+        return failures;
+    }
+
+    private interface IndexedTask {
+        void run(int index) throws SafeguardForJavaException;
+    }
+
+    /**
+     * Runs a task for each index on a bounded number of worker threads. The first failure stops
+     * the indexes that have not started yet and is rethrown.
+     */
+    private static void runConcurrently(int count, int maxParallelism, String threadName, IndexedTask task)
+            throws SafeguardForJavaException {
+
+        int workers = Math.min(maxParallelism, count);
+        if (workers < 1)
+            return;
+
+        AtomicInteger nextIndex = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    int index;
+                    while ((index = nextIndex.getAndIncrement()) < count) {
+                        task.run(index);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SafeguardForJavaException("Interrupted while waiting for the A2A requests", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof SafeguardForJavaException)
+                throw (SafeguardForJavaException) ex.getCause();
+            throw new SafeguardForJavaException("Unexpected error in an A2A request", 
+                    ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex);
+        } finally {
+            nextIndex.set(count);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Retrieves a password, or waits for the retrieval of the same API key that is already in
+     * flight on another thread and gets a copy of its password.
+     */
+    private char[] retrievePasswordCoalesced(String key, char[] apiKey) throws SafeguardForJavaException {
+
+        boolean[] owner = new boolean[1];
+        PendingRetrieval pending = pendingRetrievals.compute(key, (k, existing) -> {
+            if (existing != null) {
+                existing.join();
+                return existing;
+            }
+            owner[0] = true;
+            return new PendingRetrieval();
+        });
+        if (!owner[0]) {
+            coalescedRequestCount.incrementAndGet();
+            return pending.await();
+        }
+
+        char[] password = null;
+        SafeguardForJavaException failure = null;
+        try {
+            password = retrievePasswordInternal(apiKey);
+            return password;
+        } catch (SafeguardForJavaException ex) {
+            failure = ex;
+            throw ex;
+        } catch (RuntimeException ex) {
+            failure = new SafeguardForJavaException("Unexpected error retrieving the password", ex);
+            throw ex;
+        } finally {
+            // No thread can join once the retrieval is removed, so the waiters are known when it completes
+            pendingRetrievals.remove(key, pending);
+            pending.complete(password, failure);
+        }
+    }
+
+    @Override
+    public long getCoalescedRequestCount() {
+        return coalescedRequestCount.get();
+    }
+
+    private char[] retrievePasswordInternal(char[] apiKey) throws SafeguardForJavaException {
+
         Map<String, String> headers = new HashMap<>();
         headers.put("Authorization", String.format("A2A %s", new String(apiKey)));
 
@@ -165,13 +474,47 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
         String reply = Utils.getResponse(response);
         if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) {
             throw new SafeguardForJavaException("Error returned from Safeguard API, Error: "
-                    + String.format("%s %s", response.getStatusLine().getStatusCode(), reply));
+                    + String.format("%s %s", response.getStatusLine().getStatusCode(), reply),
+                    response.getStatusLine().getStatusCode(), reply);
         }
 
         char[] password = reply.replaceAll("\"", "").toCharArray();
         return password;
     }
 
+    @Override
+    public void setCredentialCache(A2ACredentialCache credentialCache) throws ObjectDisposedException {
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardA2AContext");
+        }
+        A2ACredentialCache previous;
+        synchronized (this) {
+            previous = ownsCredentialCache ? this.credentialCache : null;
+            this.credentialCache = credentialCache;
+            // A cache supplied by the caller may be shared with other contexts, so it is never cleared here
+            this.ownsCredentialCache = false;
+        }
+        if (previous != null && previous != credentialCache)
+            previous.clear();
+    }
+
+    @Override
+    public A2ACredentialCache getCredentialCache() {
+        return credentialCache;
+    }
+
+    private ISafeguardEventHandler invalidateCacheOnEvent(List<char[]> apiKeys, ISafeguardEventHandler handler) {
+        A2ACredentialCache cache = credentialCache;
+        if (cache == null)
+            return handler;
+        try {
+            return cache.createInvalidatingHandler(apiKeys, handler);
+        } catch (SafeguardForJavaException ex) {
+            Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.WARNING, "Unable to invalidate the credential cache on events", ex);
+            return handler;
+        }
+    }
+
     @Override
     public ISafeguardEventListener getA2AEventListener(char[] apiKey, ISafeguardEventHandler handler)
             throws ObjectDisposedException, ArgumentException {
@@ -185,7 +528,7 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
 
         SafeguardEventListener eventListener = new SafeguardEventListener(String.format("https://%s/service/a2a", networkAddress),
                 clientCertificate, apiKey, ignoreSsl, validationCallback);
-        eventListener.registerEventHandler("AssetAccountPasswordUpdated", handler);
+        eventListener.registerEventHandler("AssetAccountPasswordUpdated", invalidateCacheOnEvent(Arrays.asList(apiKey), handler));
         Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.FINEST, "Event listener successfully created for Safeguard A2A context.");
         return eventListener;
     }
@@ -203,7 +546,7 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
 
         SafeguardEventListener eventListener = new SafeguardEventListener(String.format("https://%s/service/a2a", networkAddress),
                 clientCertificate, apiKeys, ignoreSsl, validationCallback);
-        eventListener.registerEventHandler("AssetAccountPasswordUpdated", handler);
+        eventListener.registerEventHandler("AssetAccountPasswordUpdated", invalidateCacheOnEvent(apiKeys, handler));
         Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.FINEST, "Event listener successfully created for Safeguard A2A context.");
         return eventListener;
     }
@@ -218,7 +561,8 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
             throw new ArgumentException("The apiKey parameter may not be null");
         }
 
-        return new PersistentSafeguardA2AEventListener((ISafeguardA2AContext)this.cloneObject(), apiKey, handler);
+        return new PersistentSafeguardA2AEventListener((ISafeguardA2AContext)this.cloneObject(), apiKey,
+                invalidateCacheOnEvent(Arrays.asList(apiKey), handler));
     }
     
     @Override
@@ -231,13 +575,74 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
             throw new ArgumentException("The apiKeys parameter may not be null");
         }
 
-        return new PersistentSafeguardA2AEventListener((ISafeguardA2AContext)this.cloneObject(), apiKeys, handler);
+        return new PersistentSafeguardA2AEventListener((ISafeguardA2AContext)this.cloneObject(), apiKeys,
+                invalidateCacheOnEvent(apiKeys, handler));
     }
     
     @Override
     public String brokerAccessRequest(char[] apiKey, BrokeredAccessRequest accessRequest)
             throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
 
+        checkAccessRequest(apiKey, accessRequest);
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/json");
+        headers.put("Authorization", String.format("A2A %s", new String(apiKey)));
+
+        Map<String, String> parameters = new HashMap<>();
+
+        CloseableHttpResponse response = a2AClient.execPOST("AccessRequests", parameters, headers, accessRequest, clientCertificate);
+
+        if (response == null) {
+            throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", a2AClient.getBaseURL()));
+        }
+        
+        String reply = Utils.getResponse(response);
+        if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) {
+            throw new SafeguardForJavaException("Error returned from Safeguard API, Error: "
+                    + String.format("%s %s", response.getStatusLine().getStatusCode(), reply));
+        }
+
+        Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.INFO, "Successfully created A2A access request.");
+        return reply;
+    }
+
+    @Override
+    public CompletableFuture<String> brokerAccessRequestAsync(char[] apiKey, BrokeredAccessRequest accessRequest)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return brokerAccessRequestAsync(apiKey, accessRequest, 0);
+    }
+
+    @Override
+    public CompletableFuture<String> brokerAccessRequestAsync(char[] apiKey, BrokeredAccessRequest accessRequest, long timeoutMillis)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        checkAccessRequest(apiKey, accessRequest);
+        if (timeoutMillis < 0) {
+            throw new ArgumentException("The timeoutMillis parameter may not be negative");
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Accept", "application/json");
+        headers.put("Authorization", String.format("A2A %s", new String(apiKey)));
+
+        Map<String, String> parameters = new HashMap<>();
+
+        CompletableFuture<HttpResponse> exchange = a2AClient.execPOSTAsync("AccessRequests", parameters, headers, accessRequest, clientCertificate);
+        CompletableFuture<String> result = exchange.handle((response, ex) -> {
+            try {
+                String reply = getAsyncReply(response, ex);
+                Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.INFO, "Successfully created A2A access request.");
+                return reply;
+            } catch (SafeguardForJavaException sfex) {
+                throw new CompletionException(sfex);
+            }
+        });
+        return completeWithin(result, exchange, timeoutMillis);
+    }
+
+    private void checkAccessRequest(char[] apiKey, BrokeredAccessRequest accessRequest)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
         if (disposed) {
             throw new ObjectDisposedException("SafeguardA2AContext");
         }
@@ -253,32 +658,70 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
         if (accessRequest.getAssetId() == null && accessRequest.getAssetName() == null) {
             throw new SafeguardForJavaException("You must specify an asset to create an access request for");
         }
+    }
 
-        Map<String, String> headers = new HashMap<>();
-        headers.put("Accept", "application/json");
-        headers.put("Authorization", String.format("A2A %s", new String(apiKey)));
-
-        Map<String, String> parameters = new HashMap<>();
-
-        CloseableHttpResponse response = a2AClient.execPOST("AccessRequests", parameters, headers, accessRequest, clientCertificate);
+    private String getAsyncReply(HttpResponse response, Throwable ex) throws SafeguardForJavaException {
 
-        if (response == null) {
-            throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", a2AClient.getBaseURL()));
+        if (ex != null) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof CancellationException)
+                throw (CancellationException)cause;
+            throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", a2AClient.getBaseURL()),
+                    cause instanceof Exception ? (Exception)cause : new Exception(cause));
         }
-        
+
         String reply = Utils.getResponse(response);
         if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) {
             throw new SafeguardForJavaException("Error returned from Safeguard API, Error: "
-                    + String.format("%s %s", response.getStatusLine().getStatusCode(), reply));
+                    + String.format("%s %s", response.getStatusLine().getStatusCode(), reply),
+                    response.getStatusLine().getStatusCode(), reply);
         }
-
-        Logger.getLogger(SafeguardA2AContext.class.getName()).log(Level.INFO, "Successfully created A2A access request.");
         return reply;
     }
 
+    /**
+     * Fails the result with a timeout if it has not completed in time, and aborts the HTTP
+     * exchange when the result is cancelled or times out.
+     */
+    private static <T> CompletableFuture<T> completeWithin(CompletableFuture<T> result, CompletableFuture<?> exchange, long timeoutMillis) {
+
+        if (timeoutMillis > 0) {
+            ScheduledFuture<?> timeout = getTimeoutScheduler().schedule(() -> result.completeExceptionally(
+                    new SafeguardForJavaException(String.format("A2A request timed out after %d milliseconds", timeoutMillis), new TimeoutException())),
+                    timeoutMillis, TimeUnit.MILLISECONDS);
+            result.whenComplete((value, ex) -> timeout.cancel(false));
+        }
+        result.whenComplete((value, ex) -> {
+            if (!exchange.isDone())
+                exchange.cancel(true);
+        });
+        return result;
+    }
+
+    private static synchronized ScheduledExecutorService getTimeoutScheduler() {
+        if (timeoutScheduler == null) {
+            timeoutScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "SafeguardA2ATimeout");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return timeoutScheduler;
+    }
+
     @Override
     public void dispose() {
+        A2ACredentialCache cache;
+        synchronized (this) {
+            cache = ownsCredentialCache ? credentialCache : null;
+            credentialCache = null;
+            ownsCredentialCache = false;
+        }
+        if (cache != null)
+            cache.clear();
         clientCertificate.dispose();
+        a2AClient.dispose();
+        coreClient.dispose();
         disposed = true;
     }
 
@@ -294,9 +737,61 @@ public class SafeguardA2AContext implements ISafeguardA2AContext {
     
     public Object cloneObject()
     {
-        return new SafeguardA2AContext(networkAddress, clientCertificate, apiVersion, ignoreSsl, validationCallback);
+        SafeguardA2AContext context = new SafeguardA2AContext(networkAddress, clientCertificate, apiVersion, ignoreSsl, validationCallback);
+        context.credentialCache = credentialCache;
+        return context;
     }
     
+    /**
+     * A password retrieval in flight, shared with the threads that requested the same API key
+     * meanwhile. Each waiter gets its own copy of the password, the shared copy is overwritten
+     * once the last waiter has taken it.
+     */
+    private static class PendingRetrieval {
+
+        private int waiters;
+        private boolean completed;
+        private char[] password;
+        private SafeguardForJavaException failure;
+
+        synchronized void join() {
+            waiters++;
+        }
+
+        synchronized void complete(char[] password, SafeguardForJavaException failure) {
+            this.password = waiters > 0 && password != null ? password.clone() : null;
+            this.failure = failure;
+            completed = true;
+            notifyAll();
+        }
+
+        synchronized char[] await() throws SafeguardForJavaException {
+            try {
+                while (!completed) {
+                    wait();
+                }
+            } catch (InterruptedException ex) {
+                leave();
+                Thread.currentThread().interrupt();
+                throw new SafeguardForJavaException("Interrupted while waiting for the password", ex);
+            }
+            try {
+                if (failure != null)
+                    throw failure;
+                if (password == null)
+                    throw new SafeguardForJavaException("Unable to retrieve the password");
+                return password.clone();
+            } finally {
+                leave();
+            }
+        }
+
+        private void leave() {
+            if (--waiters == 0 && password != null)
+                Arrays.fill(password, '0');
+        }
+    }
+
     private List<A2ARegistration> parseA2ARegistationResponse(String response) {
         
         ObjectMapper mapper = new ObjectMapper();
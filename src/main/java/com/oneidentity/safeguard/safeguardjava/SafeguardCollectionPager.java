@@ -0,0 +1,252 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneidentity.safeguard.safeguardjava.data.FullResponse;
+import com.oneidentity.safeguard.safeguardjava.data.Method;
+import com.oneidentity.safeguard.safeguardjava.data.Service;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.apache.http.Header;
+
+/**
+ * Iterates over the items of a Safeguard API collection endpoint (e.g. Assets or Users) by
+ * driving the page and limit query parameters. The next page is requested while the current
+ * page is being consumed. When the appliance reports the total number of items with the
+ * X-Total-Count response header, the remaining pages are requested in parallel, limited to
+ * the configured number of concurrent requests. Items are always returned in collection order.
+ * <p>
+ * Requests are made with {@link ISafeguardConnection#invokeMethodFullAsync}, so no threads are
+ * held while pages are in flight. Errors are thrown from {@link #hasNext()} and {@link #next()}
+ * as a CompletionException whose cause is a SafeguardForJavaException.
+ *
+ * @param <T> Type each collection item is deserialized to, e.g. JsonNode.
+ */
+public class SafeguardCollectionPager<T> implements Iterator<T>, AutoCloseable {
+
+    public static final int DEFAULT_PAGE_SIZE = 100;
+    public static final int DEFAULT_MAX_CONCURRENCY = 4;
+
+    private static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    private final ISafeguardConnection connection;
+    private final Service service;
+    private final String relativeUrl;
+    private final Map<String, String> parameters;
+    private final Map<String, String> additionalHeaders;
+    private final int pageSize;
+    private final int maxConcurrency;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final JavaType pageType;
+
+    private final TreeMap<Integer, CompletableFuture<Page<T>>> pendingPages = new TreeMap<>();
+    private Iterator<T> currentPage = Collections.emptyIterator();
+    private int nextPageToRequest = 0;
+    private int nextPageToConsume = 0;
+    private int lastPage = -1;
+    private boolean finished;
+    private boolean closed;
+
+    /**
+     * Creates a pager that returns each item of the collection as a JsonNode.
+     *
+     * @param connection        Connection used to call the Safeguard API.
+     * @param service           Safeguard service to call.
+     * @param relativeUrl       Relative URL of the collection endpoint.
+     * @param parameters        Additional parameters to add to the URL, e.g. filter or orderby.
+     * @param additionalHeaders Additional headers to add to each request.
+     * @return The pager.
+     * @throws ArgumentException Invalid argument.
+     */
+    public static SafeguardCollectionPager<JsonNode> create(ISafeguardConnection connection, Service service, String relativeUrl,
+            Map<String, String> parameters, Map<String, String> additionalHeaders) throws ArgumentException {
+        return new SafeguardCollectionPager<>(connection, service, relativeUrl, parameters, additionalHeaders,
+                DEFAULT_PAGE_SIZE, DEFAULT_MAX_CONCURRENCY, JsonNode.class);
+    }
+
+    /**
+     * Creates a pager over a Safeguard API collection endpoint.
+     *
+     * @param connection        Connection used to call the Safeguard API.
+     * @param service           Safeguard service to call.
+     * @param relativeUrl       Relative URL of the collection endpoint.
+     * @param parameters        Additional parameters to add to the URL, e.g. filter or orderby.
+     * @param additionalHeaders Additional headers to add to each request.
+     * @param pageSize          Number of items to request per page.
+     * @param maxConcurrency    Maximum number of pages requested at the same time.
+     * @param itemType          Type each collection item is deserialized to.
+     * @throws ArgumentException Invalid argument.
+     */
+    public SafeguardCollectionPager(ISafeguardConnection connection, Service service, String relativeUrl,
+            Map<String, String> parameters, Map<String, String> additionalHeaders, int pageSize, int maxConcurrency,
+            Class<T> itemType) throws ArgumentException {
+
+        if (connection == null)
+            throw new ArgumentException("The connection parameter may not be null");
+        if (Utils.isNullOrEmpty(relativeUrl))
+            throw new ArgumentException("Parameter relativeUrl may not be null or empty");
+        if (pageSize < 1)
+            throw new ArgumentException("The pageSize parameter must be greater than zero");
+        if (maxConcurrency < 1)
+            throw new ArgumentException("The maxConcurrency parameter must be greater than zero");
+        if (itemType == null)
+            throw new ArgumentException("The itemType parameter may not be null");
+
+        this.connection = connection;
+        this.service = service;
+        this.relativeUrl = relativeUrl;
+        this.parameters = parameters == null ? new HashMap<>() : new HashMap<>(parameters);
+        this.additionalHeaders = additionalHeaders == null ? null : new HashMap<>(additionalHeaders);
+        this.pageSize = pageSize;
+        this.maxConcurrency = maxConcurrency;
+        this.pageType = mapper.getTypeFactory().constructCollectionType(List.class, itemType);
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        while (!currentPage.hasNext()) {
+            if (finished || closed)
+                return false;
+
+            requestPages();
+            CompletableFuture<Page<T>> pending = pendingPages.remove(nextPageToConsume);
+            if (pending == null) {
+                finished = true;
+                return false;
+            }
+
+            Page<T> page;
+            try {
+                page = pending.join();
+            } catch (CompletionException ex) {
+                close();
+                throw ex;
+            }
+            nextPageToConsume++;
+
+            if (lastPage < 0 && page.totalCount != null) {
+                lastPage = (page.totalCount - 1) / pageSize;
+                Logger.getLogger(SafeguardCollectionPager.class.getName()).log(Level.FINEST,
+                        String.format("Collection %s has %d items in %d pages", relativeUrl, page.totalCount, lastPage + 1));
+            }
+            if ((lastPage < 0 && page.items.size() < pageSize) || (lastPage >= 0 && nextPageToConsume > lastPage)) {
+                finished = true;
+            }
+
+            currentPage = page.items.iterator();
+            if (!finished)
+                requestPages();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized T next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return currentPage.next();
+    }
+
+    /**
+     * Gets a sequential stream of the collection items. Closing the stream closes the pager.
+     *
+     * @return Stream of collection items.
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Cancels any page requests that are still in flight.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (CompletableFuture<Page<T>> pending : pendingPages.values()) {
+            pending.cancel(true);
+        }
+        pendingPages.clear();
+        currentPage = Collections.emptyIterator();
+    }
+
+    private void requestPages() {
+        if (lastPage >= 0) {
+            // Total known: keep up to maxConcurrency pages in flight
+            while (nextPageToRequest <= lastPage && pendingPages.size() < maxConcurrency) {
+                requestPage(nextPageToRequest++);
+            }
+        } else {
+            // Total unknown: request the page being consumed plus one page ahead
+            while (nextPageToRequest <= nextPageToConsume && pendingPages.size() < maxConcurrency) {
+                requestPage(nextPageToRequest++);
+            }
+        }
+    }
+
+    private void requestPage(int pageNumber) {
+        Map<String, String> pageParameters = new HashMap<>(parameters);
+        pageParameters.put("page", Integer.toString(pageNumber));
+        pageParameters.put("limit", Integer.toString(pageSize));
+
+        CompletableFuture<Page<T>> page;
+        try {
+            CompletableFuture<FullResponse> response = connection.invokeMethodFullAsync(service, Method.Get, relativeUrl, null,
+                    pageParameters, additionalHeaders);
+            page = response.thenApply(this::parsePage);
+        } catch (ObjectDisposedException | SafeguardForJavaException | ArgumentException ex) {
+            page = new CompletableFuture<>();
+            page.completeExceptionally(ex);
+        }
+        pendingPages.put(pageNumber, page);
+    }
+
+    private Page<T> parsePage(FullResponse response) {
+        Integer totalCount = null;
+        for (Header header : response.getHeaders()) {
+            if (TOTAL_COUNT_HEADER.equalsIgnoreCase(header.getName())) {
+                try {
+                    totalCount = Integer.parseInt(header.getValue().trim());
+                } catch (NumberFormatException ex) {
+                }
+            }
+        }
+
+        try {
+            List<T> items = Utils.isNullOrEmpty(response.getBody()) ? Collections.emptyList() : mapper.readValue(response.getBody(), pageType);
+            return new Page<>(items, totalCount);
+        } catch (IOException ex) {
+            throw new CompletionException(new SafeguardForJavaException(
+                    String.format("Unable to parse collection page returned from %s", relativeUrl), ex));
+        }
+    }
+
+    private static class Page<T> {
+
+        final List<T> items;
+        final Integer totalCount;
+
+        Page(List<T> items, Integer totalCount) {
+            this.items = items;
+            this.totalCount = totalCount;
+        }
+    }
+}
@@ -7,6 +7,8 @@ import com.oneidentity.safeguard.safeguardjava.authentication.PasswordAuthentica
 import com.oneidentity.safeguard.safeguardjava.data.FullResponse;
 import com.oneidentity.safeguard.safeguardjava.data.JsonBody;
 import com.oneidentity.safeguard.safeguardjava.data.Method;
+import com.oneidentity.safeguard.safeguardjava.data.SafeguardBatchResult;
+import com.oneidentity.safeguard.safeguardjava.data.SafeguardRequest;
 import com.oneidentity.safeguard.safeguardjava.data.Service;
 import com.oneidentity.safeguard.safeguardjava.event.ISafeguardEventListener;
 import com.oneidentity.safeguard.safeguardjava.event.PersistentSafeguardEventListener;
@@ -15,22 +17,55 @@ import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
 import com.oneidentity.safeguard.safeguardjava.restclient.RestClient;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BufferedHeader;
+import org.apache.http.util.CharArrayBuffer;
 
 class SafeguardConnection implements ISafeguardConnection {
 
-    private boolean disposed;
+    static final int DEFAULT_BATCH_PARALLELISM = 8;
+    static final String TOKEN_LIFETIME_HEADER = "X-TokenLifetimeRemaining";
+
+    private volatile boolean disposed;
 
     private final IAuthenticationMechanism authenticationMechanism;
 
     private final RestClient coreClient;
     private final RestClient applianceClient;
     private final RestClient notificationClient;
+    private volatile SafeguardResponseCache responseCache;
+    private volatile AuthorizationHeader authorizationHeader;
+    private TokenRefreshScheduler tokenRefreshScheduler;
+    private final Map<Service, RetryPolicy> retryPolicies = Collections.synchronizedMap(new EnumMap<>(Service.class));
 
     public SafeguardConnection(IAuthenticationMechanism authenticationMechanism) {
         this.authenticationMechanism = authenticationMechanism;
@@ -62,6 +97,14 @@ class SafeguardConnection implements ISafeguardConnection {
         return lifetime;
     }
 
+    @Override
+    public int queryAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        return authenticationMechanism.queryAccessTokenLifetimeRemaining();
+    }
+
     @Override
     public void refreshAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
         if (disposed) {
@@ -71,6 +114,24 @@ class SafeguardConnection implements ISafeguardConnection {
         Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Successfully obtained a new access token");
     }
 
+    @Override
+    public void refreshExpiredAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+        refreshExpiredAccessToken(false);
+    }
+
+    @Override
+    public void refreshExpiredAccessToken(boolean queryAppliance) throws ObjectDisposedException, SafeguardForJavaException {
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        // Read before the lifetime, so a refresh finishing in between is not repeated
+        char[] accessToken = authenticationMechanism.getAccessToken();
+        int lifetime = queryAppliance ? queryAccessTokenLifetimeRemaining() : getAccessTokenLifetimeRemaining();
+        if (lifetime == 0) {
+            authenticationMechanism.refreshAccessToken(accessToken);
+        }
+    }
+
     @Override
     public String invokeMethod(Service service, Method method, String relativeUrl, String body,
             Map<String, String> parameters, Map<String, String> additionalHeaders)
@@ -89,6 +150,100 @@ class SafeguardConnection implements ISafeguardConnection {
         if (disposed) {
             throw new ObjectDisposedException("SafeguardConnection");
         }
+        SafeguardResponseCache cache = responseCache;
+        if (cache != null && method == Method.Get && (additionalHeaders == null 
+                || (!additionalHeaders.containsKey(HttpHeaders.IF_NONE_MATCH) && !additionalHeaders.containsKey(HttpHeaders.IF_MODIFIED_SINCE)))) {
+            return invokeMethodCached(cache, service, relativeUrl, parameters, additionalHeaders);
+        }
+        ExecutedRequest request = executeRequest(service, method, relativeUrl, body, parameters, additionalHeaders);
+        FullResponse fullResponse = createFullResponse(request.response, request.accessToken);
+        fullResponse.setRetryCount(request.retries);
+        return fullResponse;
+    }
+
+    private FullResponse invokeMethodCached(SafeguardResponseCache cache, Service service, String relativeUrl,
+            Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        String accept = additionalHeaders == null ? null : additionalHeaders.get(HttpHeaders.ACCEPT);
+        String key = SafeguardResponseCache.createKey(service, relativeUrl, parameters, accept == null ? "application/json" : accept,
+                authenticationMechanism.isAnonymous() ? null : authenticationMechanism.getAccessToken());
+        SafeguardResponseCache.Entry entry = key == null ? null : cache.get(key);
+
+        Map<String, String> headers = additionalHeaders == null ? new HashMap<>() : new HashMap<>(additionalHeaders);
+        if (entry != null) {
+            if (entry.etag != null)
+                headers.put(HttpHeaders.IF_NONE_MATCH, entry.etag);
+            else
+                headers.put(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+        }
+
+        ExecutedRequest request = executeRequest(service, Method.Get, relativeUrl, null, parameters, headers);
+        if (entry != null && request.response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            try {
+                request.response.close();
+            } catch (IOException ex) {
+            }
+            updateAccessTokenLifetime(request.response, request.accessToken);
+            cache.recordHit(entry);
+            Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Response not modified, body size {0} returned from cache", entry.size);
+            return new FullResponse(entry.statusCode, entry.headers, entry.body, request.retries);
+        }
+
+        Header etag = request.response.getFirstHeader(HttpHeaders.ETAG);
+        Header lastModified = request.response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        FullResponse fullResponse = createFullResponse(request.response, request.accessToken);
+        fullResponse.setRetryCount(request.retries);
+        if (key != null) {
+            cache.recordMiss();
+            if (etag != null || lastModified != null) {
+                cache.put(key, new SafeguardResponseCache.Entry(fullResponse.getStatusCode(), request.response.getAllHeaders(), fullResponse.getBody(),
+                        etag == null ? null : etag.getValue(), lastModified == null ? null : lastModified.getValue()));
+            } else {
+                cache.remove(key);
+            }
+        }
+        return fullResponse;
+    }
+
+    @Override
+    public InputStream invokeMethodStream(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        CloseableHttpResponse response = executeRequest(service, method, relativeUrl, body, parameters, additionalHeaders).response;
+
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (!Utils.isSuccessful(statusCode)) {
+            String reply = Utils.getResponse(response);
+            throw new SafeguardForJavaException("Error returned from Safeguard API, Error: "
+                    + String.format("%d %s", statusCode, reply), statusCode, reply);
+        }
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Reponse status code: {0}", statusCode);
+
+        try {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                response.close();
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            return new ResponseInputStream(entity.getContent(), response);
+        } catch (IOException ex) {
+            try {
+                response.close();
+            } catch (IOException closeEx) {
+            }
+            throw new SafeguardForJavaException("Unable to read response from Safeguard API", ex);
+        }
+    }
+
+    private ExecutedRequest executeRequest(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
         if (Utils.isNullOrEmpty(relativeUrl))
             throw new ArgumentException("Parameter relativeUrl may not be null or empty");
         
@@ -98,50 +253,131 @@ class SafeguardConnection implements ISafeguardConnection {
         }
         
         Map<String,String> headers = prepareHeaders(additionalHeaders, service);
-        CloseableHttpResponse response = null;
+        AuthorizationHeader authorization = prepareAuthorization(headers);
+        Header[] authorizationHeaders = authorization == null ? null : new Header[] { authorization.header };
 
-        String msg = String.format("Invoking method: %s %s", method.toString().toUpperCase(), client.getBaseURL() + "/" + relativeUrl);
-        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, msg);
-        msg = parameters == null ? "None" : parameters.keySet().stream().map(key -> key + "=" + parameters.get(key)).collect(Collectors.joining(", ", "{", "}"));
-        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Query parameters: {0}", msg);
-        msg = headers == null ? "None" : headers.keySet().stream().map(key -> key + "=" + headers.get(key)).collect(Collectors.joining(", ", "{", "}"));
-        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Additional headers: {0}", msg);
+        logRequestDetails(method, client, relativeUrl, parameters, headers);
         
-        switch (method) {
-            case Get:
-                response = client.execGET(relativeUrl, parameters, headers);
-                break;
-            case Post:
-                response = client.execPOST(relativeUrl, parameters, headers, new JsonBody(body));
-                break;
-            case Put:
-                response = client.execPUT(relativeUrl, parameters, headers, new JsonBody(body));
-                break;
-            case Delete:
-                response = client.execDELETE(relativeUrl, parameters, headers);
-                break;
+        JsonBody requestEntity = method == Method.Post || method == Method.Put ? new JsonBody(body) : null;
+        String httpMethod = method.toString().toUpperCase(Locale.ROOT);
+        return executeWithRetry(client, getRetryPolicy(service), method, relativeUrl, authorization == null ? null : authorization.accessToken,
+                () -> client.execRequest(httpMethod, relativeUrl, parameters, headers, authorizationHeaders, requestEntity));
+    }
+
+    ExecutedRequest executeWithRetry(RestClient client, RetryPolicy retryPolicy, Method method, String relativeUrl,
+            char[] accessToken, RequestExecutor executor) throws SafeguardForJavaException {
+
+        int retries = 0;
+        while (true) {
+            CloseableHttpResponse response = null;
+            Exception failure = null;
+            try {
+                response = executor.execute();
+            } catch (Exception ex) {
+                Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Request to " + client.getBaseURL() + " failed", ex);
+                failure = ex;
+            }
+
+            if (response != null && !retryPolicy.isRetryableStatus(response.getStatusLine().getStatusCode())) {
+                retryPolicy.onSuccess();
+                return new ExecutedRequest(response, retries, accessToken);
+            }
+            // Permanent failures, e.g. TLS or certificate errors, are reported without retrying
+            boolean retryable = response != null || retryPolicy.isRetryableException(failure);
+            if (!retryable || !retryPolicy.shouldRetry(method, retries)) {
+                if (response == null) {
+                    throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", client.getBaseURL()), failure);
+                }
+                return new ExecutedRequest(response, retries, accessToken);
+            }
+
+            long delay = retryPolicy.getBackoffMillis(retries);
+            String reason = failure == null ? "connection failure" : failure.getClass().getSimpleName();
+            if (response != null) {
+                reason = String.format("status %d", response.getStatusLine().getStatusCode());
+                delay = Math.max(delay, getRetryAfterMillis(response, retryPolicy));
+                try {
+                    response.close();
+                } catch (IOException ex) {
+                }
+            }
+            retries++;
+            Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINE, 
+                    String.format("Retrying %s %s after %s in %d ms (retry %d)", method.toString().toUpperCase(), relativeUrl, reason, delay, retries));
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SafeguardForJavaException(String.format("Interrupted while retrying web service %s", client.getBaseURL()), ex);
+            }
         }
-        
-        if (response == null) {
-            throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", client.getBaseURL()));
+    }
+
+    private static long getRetryAfterMillis(HttpResponse response, RetryPolicy retryPolicy) {
+        Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null)
+            return 0;
+        try {
+            return Math.min(Long.parseLong(retryAfter.getValue().trim()) * 1000, retryPolicy.getMaxBackoffMillis());
+        } catch (NumberFormatException ex) {
+            return 0;
         }
+    }
 
-        String reply = Utils.getResponse(response);
-        
-        if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) {
-            throw new SafeguardForJavaException("Error returned from Safeguard API, Error: "
-                    + String.format("%d %s", response.getStatusLine().getStatusCode(), reply));
+    @Override
+    public CompletableFuture<String> invokeMethodAsync(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
         }
+        CompletableFuture<FullResponse> fullResponse = invokeMethodFullAsync(service, method, relativeUrl, body, parameters, additionalHeaders);
+        return cancelWith(fullResponse.thenApply(FullResponse::getBody), fullResponse);
+    }
 
-        FullResponse fullResponse = new FullResponse(response.getStatusLine().getStatusCode(), response.getAllHeaders(), reply);
+    @Override
+    public CompletableFuture<FullResponse> invokeMethodFullAsync(Service service, Method method, String relativeUrl,
+            String body, Map<String, String> parameters, Map<String, String> additionalHeaders)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        if (Utils.isNullOrEmpty(relativeUrl))
+            throw new ArgumentException("Parameter relativeUrl may not be null or empty");
         
-        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Reponse status code: {0}", fullResponse.getStatusCode());
-        msg = fullResponse.getHeaders() == null ? "None" : fullResponse.getHeaders().stream().map(header -> header.getName() + "=" + header.getValue()).collect(Collectors.joining(", ", "{", "}"));
-        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Response headers: {0}", msg);
-        msg = fullResponse.getBody() == null ? "None" : String.format("%d",fullResponse.getBody().length());
-        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Body size: {0}", msg);
+        RestClient client = getClientForService(service);
+        if (!authenticationMechanism.isAnonymous() && !authenticationMechanism.hasAccessToken()) {
+            throw new SafeguardForJavaException("Access token is missing due to log out, you must refresh the access token to invoke a method");
+        }
         
-        return fullResponse;
+        Map<String,String> headers = prepareHeaders(additionalHeaders, service);
+        AuthorizationHeader authorization = prepareAuthorization(headers);
+        char[] accessToken = authorization == null ? null : authorization.accessToken;
+
+        logRequestDetails(method, client, relativeUrl, parameters, headers);
+
+        JsonBody requestEntity = method == Method.Post || method == Method.Put ? new JsonBody(body) : null;
+        CompletableFuture<HttpResponse> exchange = client.execRequestAsync(method.toString().toUpperCase(Locale.ROOT),
+                relativeUrl, parameters, headers, authorization == null ? null : new Header[] { authorization.header }, requestEntity);
+
+        CompletableFuture<FullResponse> result = exchange.handle((response, ex) -> {
+            if (ex != null) {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                if (cause instanceof CancellationException)
+                    throw (CancellationException)cause;
+                throw new CompletionException(new SafeguardForJavaException(
+                        String.format("Unable to connect to web service %s", client.getBaseURL()),
+                        cause instanceof Exception ? (Exception)cause : new Exception(cause)));
+            }
+            try {
+                return createFullResponse(response, accessToken);
+            } catch (SafeguardForJavaException sfex) {
+                throw new CompletionException(sfex);
+            }
+        });
+        return cancelWith(result, exchange);
     }
 
     @Override
@@ -160,6 +396,231 @@ class SafeguardConnection implements ISafeguardConnection {
         return invokeMethodFull(service, method, relativeUrl, body, parameters, additionalHeaders).getBody();
     }
        
+    @Override
+    public PreparedSafeguardRequest prepareRequest(Service service, Method method, String pathTemplate,
+            Map<String, String> staticHeaders) throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        if (method == null) {
+            throw new ArgumentException("The method parameter may not be null");
+        }
+        if (Utils.isNullOrEmpty(pathTemplate)) {
+            throw new ArgumentException("Parameter pathTemplate may not be null or empty");
+        }
+        return new PreparedSafeguardRequest(this, getClientForService(service), service, method, pathTemplate, staticHeaders);
+    }
+
+    void checkCanInvoke() throws ObjectDisposedException, SafeguardForJavaException {
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        if (!authenticationMechanism.isAnonymous() && !authenticationMechanism.hasAccessToken()) {
+            throw new SafeguardForJavaException("Access token is missing due to log out, you must refresh the access token to invoke a method");
+        }
+    }
+
+    boolean isAnonymous() {
+        return authenticationMechanism instanceof AnonymousAuthenticator;
+    }
+
+    @Override
+    public List<SafeguardBatchResult> invokeBatch(List<SafeguardRequest> requests)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        return invokeBatch(requests, DEFAULT_BATCH_PARALLELISM);
+    }
+
+    @Override
+    public List<SafeguardBatchResult> invokeBatch(List<SafeguardRequest> requests, int maxParallelism)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        if (requests == null) {
+            throw new ArgumentException("The requests parameter may not be null");
+        }
+        if (maxParallelism < 1) {
+            throw new ArgumentException("The maxParallelism parameter must be greater than zero");
+        }
+
+        SafeguardBatchResult[] results = new SafeguardBatchResult[requests.size()];
+        AtomicInteger nextRequest = new AtomicInteger();
+        AtomicBoolean stopped = new AtomicBoolean();
+        int workers = Math.min(maxParallelism, requests.size());
+        
+        // Each worker makes blocking calls so the requests get the retry policy of their service,
+        // the pooled connections are shared with every other call made through this connection
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(workers, 1), runnable -> {
+            Thread thread = new Thread(runnable, "SafeguardBatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(() -> {
+                    int index;
+                    while ((index = nextRequest.getAndIncrement()) < results.length) {
+                        results[index] = invokeBatchRequest(requests.get(index), stopped);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            stopped.set(true);
+            throw new SafeguardForJavaException("Interrupted while waiting for the batch to complete", ex);
+        } catch (ExecutionException ex) {
+            throw new SafeguardForJavaException("Unexpected error while running the batch", 
+                    ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, 
+                String.format("Batch of %d requests completed%s", results.length, stopped.get() ? " after an authentication failure" : ""));
+        return Arrays.asList(results);
+    }
+
+    private SafeguardBatchResult invokeBatchRequest(SafeguardRequest request, AtomicBoolean stopped) {
+
+        if (stopped.get()) {
+            return new SafeguardBatchResult(request, new SafeguardForJavaException(
+                    "Request was not made because an earlier request in the batch failed authentication"));
+        }
+        if (request == null || request.getService() == null || request.getMethod() == null) {
+            return new SafeguardBatchResult(request, new ArgumentException("The request, its service and its method may not be null"));
+        }
+        try {
+            return new SafeguardBatchResult(request, invokeMethodFull(request.getService(), request.getMethod(), 
+                    request.getRelativeUrl(), request.getBody(), request.getParameters(), request.getAdditionalHeaders()));
+        } catch (SafeguardForJavaException ex) {
+            if (ex.getHttpStatusCode() == 401) {
+                stopped.set(true);
+            }
+            return new SafeguardBatchResult(request, ex);
+        } catch (ObjectDisposedException ex) {
+            stopped.set(true);
+            return new SafeguardBatchResult(request, ex);
+        } catch (ArgumentException | RuntimeException ex) {
+            return new SafeguardBatchResult(request, ex);
+        }
+    }
+
+    @Override
+    public void setConnectionLimits(int maxConnectionsTotal, int maxConnectionsPerRoute)
+            throws ObjectDisposedException, ArgumentException {
+        
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        if (maxConnectionsTotal < 1 || maxConnectionsPerRoute < 1) {
+            throw new ArgumentException("Connection limits must be greater than zero");
+        }
+        coreClient.setConnectionLimits(maxConnectionsTotal, maxConnectionsPerRoute);
+        applianceClient.setConnectionLimits(maxConnectionsTotal, maxConnectionsPerRoute);
+        notificationClient.setConnectionLimits(maxConnectionsTotal, maxConnectionsPerRoute);
+    }
+
+    @Override
+    public void setHttp2Enabled(boolean enabled) throws ObjectDisposedException {
+        
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        coreClient.setHttp2Enabled(enabled);
+        applianceClient.setHttp2Enabled(enabled);
+        notificationClient.setHttp2Enabled(enabled);
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "HTTP/2 transport enabled: {0}", coreClient.isHttp2Enabled());
+    }
+
+    @Override
+    public boolean isHttp2Enabled() {
+        return coreClient.isHttp2Enabled();
+    }
+
+    @Override
+    public void setRequestCompressionThreshold(int thresholdBytes) throws ObjectDisposedException {
+        
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        coreClient.setRequestCompressionThreshold(thresholdBytes);
+        applianceClient.setRequestCompressionThreshold(thresholdBytes);
+        notificationClient.setRequestCompressionThreshold(thresholdBytes);
+    }
+
+    @Override
+    public void setRetryPolicy(Service service, RetryPolicy retryPolicy) throws ObjectDisposedException {
+        
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        retryPolicies.put(service, retryPolicy == null ? RetryPolicy.NONE : retryPolicy);
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy(Service service) {
+        return retryPolicies.getOrDefault(service, RetryPolicy.DEFAULT);
+    }
+
+    @Override
+    public void setResponseCache(SafeguardResponseCache responseCache) throws ObjectDisposedException {
+        
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        this.responseCache = responseCache;
+    }
+
+    @Override
+    public SafeguardResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    @Override
+    public void enableTokenRefresh() throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        enableTokenRefresh(TokenRefreshScheduler.DEFAULT_REFRESH_FRACTION);
+    }
+
+    @Override
+    public synchronized void enableTokenRefresh(double refreshFraction)
+            throws ObjectDisposedException, SafeguardForJavaException, ArgumentException {
+        
+        if (disposed) {
+            throw new ObjectDisposedException("SafeguardConnection");
+        }
+        if (!(refreshFraction > 0 && refreshFraction < 1)) {
+            throw new ArgumentException("The refreshFraction parameter must be greater than zero and less than one");
+        }
+        if (!(authenticationMechanism instanceof PasswordAuthenticator) &&
+            !(authenticationMechanism instanceof CertificateAuthenticator)) {
+            throw new SafeguardForJavaException("Unable to refresh the access token in the background for " + authenticationMechanism.getClass().getName());
+        }
+        if (tokenRefreshScheduler != null) {
+            tokenRefreshScheduler.stop();
+        }
+        tokenRefreshScheduler = new TokenRefreshScheduler(authenticationMechanism, refreshFraction);
+        tokenRefreshScheduler.start();
+    }
+
+    @Override
+    public synchronized void disableTokenRefresh() {
+        if (tokenRefreshScheduler != null) {
+            tokenRefreshScheduler.stop();
+            tokenRefreshScheduler = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isTokenRefreshEnabled() {
+        return tokenRefreshScheduler != null;
+    }
+
     @Override
     public SafeguardEventListener getEventListener() throws ObjectDisposedException, ArgumentException {
         SafeguardEventListener eventListener = new SafeguardEventListener(
@@ -184,25 +645,101 @@ class SafeguardConnection implements ISafeguardConnection {
         throw new SafeguardForJavaException("Unable to create persistent event listener from " + this.authenticationMechanism.getClass().getName());
     }
 
+    /**
+     * Gets whether the access token of this connection is shared with other connections through
+     * the token store.
+     */
+    boolean isAccessTokenStored() {
+        return !disposed && authenticationMechanism.isAccessTokenStored();
+    }
+
     @Override
     public void logOut() throws ObjectDisposedException {
         
         if (disposed)
             throw new ObjectDisposedException("SafeguardConnection");
         
+        // Stop the background refresh first so it does not log back in
+        disableTokenRefresh();
         if (!authenticationMechanism.hasAccessToken())
             return;
-        try {
-            this.invokeMethodFull(Service.Core, Method.Post, "Token/Logout", null, null, null);
-            Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Successfully logged out");
-        }
-        catch (Exception ex) {
-            Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Exception occurred during logout", ex);
+        if (authenticationMechanism.isAccessTokenStored()) {
+            // Other connections, here or in other processes, may be using the stored session, so
+            // it is only taken out of the store and left to expire
+            Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Access token is shared through the token store, not logging out its session");
+        } else {
+            try {
+                this.invokeMethodFull(Service.Core, Method.Post, "Token/Logout", null, null, null);
+                Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Successfully logged out");
+            }
+            catch (Exception ex) {
+                Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Exception occurred during logout", ex);
+            }
         }
+        authenticationMechanism.removeStoredAccessToken();
         authenticationMechanism.clearAccessToken();
         Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Cleared access token");
     }
     
+    private void logRequestDetails(Method method, RestClient client, String relativeUrl,
+            Map<String, String> parameters, Map<String, String> headers) {
+
+        if (!Logger.getLogger(SafeguardConnection.class.getName()).isLoggable(Level.FINEST))
+            return;
+        String msg = String.format("Invoking method: %s %s", method.toString().toUpperCase(), client.getBaseURL() + "/" + relativeUrl);
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, msg);
+        msg = parameters == null ? "None" : parameters.keySet().stream().map(key -> key + "=" + parameters.get(key)).collect(Collectors.joining(", ", "{", "}"));
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Query parameters: {0}", msg);
+        msg = headers == null ? "None" : headers.keySet().stream().map(key -> key + "=" + headers.get(key)).collect(Collectors.joining(", ", "{", "}"));
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Additional headers: {0}", msg);
+    }
+
+    FullResponse createFullResponse(HttpResponse response, char[] accessToken) throws SafeguardForJavaException {
+
+        updateAccessTokenLifetime(response, accessToken);
+        String reply = Utils.getResponse(response);
+        
+        if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) {
+            throw new SafeguardForJavaException("Error returned from Safeguard API, Error: "
+                    + String.format("%d %s", response.getStatusLine().getStatusCode(), reply), 
+                    response.getStatusLine().getStatusCode(), reply);
+        }
+
+        FullResponse fullResponse = new FullResponse(response.getStatusLine().getStatusCode(), response.getAllHeaders(), reply);
+        
+        if (!Logger.getLogger(SafeguardConnection.class.getName()).isLoggable(Level.FINEST))
+            return fullResponse;
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "Reponse status code: {0}", fullResponse.getStatusCode());
+        String msg = fullResponse.getHeaders() == null ? "None" : fullResponse.getHeaders().stream().map(header -> header.getName() + "=" + header.getValue()).collect(Collectors.joining(", ", "{", "}"));
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Response headers: {0}", msg);
+        msg = fullResponse.getBody() == null ? "None" : String.format("%d",fullResponse.getBody().length());
+        Logger.getLogger(SafeguardConnection.class.getName()).log(Level.FINEST, "  Body size: {0}", msg);
+        
+        return fullResponse;
+    }
+
+    /**
+     * Applies the remaining lifetime reported by a response to the token sent with the request,
+     * which is null when the caller supplied its own Authorization header.
+     */
+    private void updateAccessTokenLifetime(HttpResponse response, char[] accessToken) {
+        Header remaining = response.getFirstHeader(TOKEN_LIFETIME_HEADER);
+        if (remaining == null || accessToken == null)
+            return;
+        try {
+            authenticationMechanism.updateAccessTokenLifetime(accessToken, Integer.parseInt(remaining.getValue().trim()));
+        } catch (NumberFormatException ex) {
+        }
+    }
+
+    private static <T> CompletableFuture<T> cancelWith(CompletableFuture<T> dependent, CompletableFuture<?> source) {
+        dependent.whenComplete((result, ex) -> {
+            if (dependent.isCancelled())
+                source.cancel(true);
+        });
+        return dependent;
+    }
+
     private RestClient getClientForService(Service service) throws SafeguardForJavaException {
         switch (service) {
             case Core:
@@ -219,12 +756,27 @@ class SafeguardConnection implements ISafeguardConnection {
         }
     }
     
+    /**
+     * Gets the Authorization header for the current access token. The header is only rebuilt
+     * when the authenticator has a new token, which is detected by the identity of its array.
+     */
+    AuthorizationHeader getAuthorizationHeader() throws ObjectDisposedException {
+        char[] accessToken = authenticationMechanism.getAccessToken();
+        AuthorizationHeader header = authorizationHeader;
+        if (header == null || header.accessToken != accessToken) {
+            header = new AuthorizationHeader(accessToken);
+            authorizationHeader = header;
+        }
+        return header;
+    }
+
     private Map<String,String> prepareHeaders(Map<String,String> additionalHeaders, Service service) 
             throws ObjectDisposedException {
         
         Map<String,String> headers = new HashMap<>();
         if (!(authenticationMechanism instanceof AnonymousAuthenticator)) { 
-            headers.put("Authorization", String.format("Bearer %s", new String(authenticationMechanism.getAccessToken())));
+            // Ask for the remaining token lifetime so it is tracked without extra requests
+            headers.put(TOKEN_LIFETIME_HEADER, "");
         }
         
         if (additionalHeaders != null) { 
@@ -235,11 +787,26 @@ class SafeguardConnection implements ISafeguardConnection {
         return headers;
     }
 
+    /**
+     * Gets the Authorization header to send with the prepared headers. The header is passed to the
+     * client as it is, so the access token is never copied into a String. An Authorization header
+     * given by the caller takes precedence.
+     */
+    private AuthorizationHeader prepareAuthorization(Map<String,String> headers) throws ObjectDisposedException {
+        if (authenticationMechanism instanceof AnonymousAuthenticator || headers.containsKey(HttpHeaders.AUTHORIZATION))
+            return null;
+        return getAuthorizationHeader();
+    }
+
     @Override
     public void dispose()
     {
+        disableTokenRefresh();
         if (authenticationMechanism != null)
             authenticationMechanism.dispose();
+        coreClient.dispose();
+        applianceClient.dispose();
+        notificationClient.dispose();
         disposed = true;
     }
 
@@ -256,7 +823,85 @@ class SafeguardConnection implements ISafeguardConnection {
     
     public Object cloneObject() throws SafeguardForJavaException 
     {
-        return new SafeguardConnection((IAuthenticationMechanism)authenticationMechanism.cloneObject());
+        SafeguardConnection connection = new SafeguardConnection((IAuthenticationMechanism)authenticationMechanism.cloneObject());
+        connection.coreClient.setRequestCompressionThreshold(coreClient.getRequestCompressionThreshold());
+        connection.applianceClient.setRequestCompressionThreshold(applianceClient.getRequestCompressionThreshold());
+        connection.notificationClient.setRequestCompressionThreshold(notificationClient.getRequestCompressionThreshold());
+        if (isHttp2Enabled()) {
+            connection.coreClient.setHttp2Enabled(true);
+            connection.applianceClient.setHttp2Enabled(true);
+            connection.notificationClient.setHttp2Enabled(true);
+        }
+        connection.retryPolicies.putAll(retryPolicies);
+        connection.responseCache = responseCache;
+        synchronized (this) {
+            if (tokenRefreshScheduler != null) {
+                connection.tokenRefreshScheduler = new TokenRefreshScheduler(connection.authenticationMechanism, tokenRefreshScheduler.getRefreshFraction());
+                connection.tokenRefreshScheduler.start();
+            }
+        }
+        return connection;
+    }
+
+    interface RequestExecutor {
+        CloseableHttpResponse execute() throws Exception;
+    }
+
+    /**
+     * The Authorization header of one access token. The header keeps the characters of the
+     * value in a buffer that is written directly to the connection.
+     */
+    static class AuthorizationHeader {
+
+        final char[] accessToken;
+        final Header header;
+
+        AuthorizationHeader(char[] accessToken) {
+            this.accessToken = accessToken;
+            CharArrayBuffer buffer = new CharArrayBuffer(HttpHeaders.AUTHORIZATION.length() + 9 + accessToken.length);
+            buffer.append(HttpHeaders.AUTHORIZATION);
+            buffer.append(": Bearer ");
+            buffer.append(accessToken, 0, accessToken.length);
+            this.header = new BufferedHeader(buffer);
+        }
+    }
+
+    static class ExecutedRequest {
+
+        final CloseableHttpResponse response;
+        final int retries;
+        // The access token sent with the request, null if none was sent by the connection
+        final char[] accessToken;
+
+        ExecutedRequest(CloseableHttpResponse response, int retries, char[] accessToken) {
+            this.response = response;
+            this.retries = retries;
+            this.accessToken = accessToken;
+        }
+    }
+
+    /**
+     * Response body stream that releases the underlying HTTP response when closed. Closing the
+     * response rather than the entity stream means that an unread remainder of a large body is
+     * discarded with the connection instead of being drained.
+     */
+    private static class ResponseInputStream extends FilterInputStream {
+
+        private final CloseableHttpResponse response;
+        private boolean closed;
+
+        ResponseInputStream(InputStream in, CloseableHttpResponse response) {
+            super(in);
+            this.response = response;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            response.close();
+        }
     }
 
 }
@@ -0,0 +1,474 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.oneidentity.safeguard.safeguardjava.exceptions.ArgumentException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Hands out authenticated Safeguard API connections for many identities, keyed by appliance
+ * and identity, so that each identity logs in once and its session is reused by every caller
+ * instead of creating new clients and logging in for each request context.
+ * <p>
+ * A connection is leased with one of the getConnection methods and returned by disposing the
+ * lease. Leases of the same identity share one connection, so settings changed through a lease
+ * apply to all of them. Logging out a lease removes its connection from the pool.
+ * <p>
+ * Connections that are not leased are evicted once they have been idle for the idle timeout, or
+ * least recently used first when the pool holds more than its maximum size. Evicted connections
+ * are logged out on a background thread, except those whose access token is shared through the
+ * token store: other connections, in this or other processes, may be using that session, so it
+ * is left in the store to expire. A connection whose access token has expired is logged in again
+ * when it is leased.
+ * <p>
+ * The login of an identity is made while holding the lock of its pool entry, so other callers
+ * leasing the same identity wait for the whole login exchange with the appliance, including the
+ * RSTS, rather than logging in themselves. The wait is only bounded by the timeouts of the HTTP
+ * client, callers leasing other identities are not blocked.
+ */
+public class SafeguardConnectionPool {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+    public static final long DEFAULT_IDLE_TIMEOUT = 900;
+
+    private static final int DEFAULTAPIVERSION = 3;
+
+    private final int maxSize;
+    private final long idleTimeoutNanos;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService executor;
+    // Random key of this pool for the HMAC of the secrets in the pool keys
+    private final byte[] keySecret = new byte[32];
+    private boolean disposed;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a pool of up to 32 connections, evicted after 15 minutes of inactivity.
+     */
+    public SafeguardConnectionPool() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param maxSize Maximum number of connections kept while they are not leased, at least 1.
+     * @param idleTimeoutSeconds Number of seconds a connection is kept while it is not leased, at least 1.
+     */
+    public SafeguardConnectionPool(int maxSize, long idleTimeoutSeconds) {
+        idleTimeoutSeconds = Math.max(1, idleTimeoutSeconds);
+        this.maxSize = Math.max(1, maxSize);
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SafeguardConnectionPool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        new SecureRandom().nextBytes(keySecret);
+        long sweepSeconds = Math.max(1, idleTimeoutSeconds / 2);
+        executor.scheduleWithFixedDelay(this::evict, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     *  Lease a connection authenticated with a user name and password.
+     *
+     *  @param networkAddress Network address of Safeguard appliance.
+     *  @param provider Safeguard authentication provider name (e.g. local).
+     *  @param username User name to use for authentication.
+     *  @param password User password to use for authentication.
+     *  @param apiVersion Target API version to use.
+     *  @param ignoreSsl Ignore server certificate validation.
+     *
+     *  @return Pooled Safeguard API connection, dispose it to return it to the pool.
+     *  @throws ObjectDisposedException The pool has already been disposed.
+     *  @throws ArgumentException Invalid argument.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */
+    public ISafeguardConnection getConnection(String networkAddress, String provider, String username,
+            char[] password, Integer apiVersion, Boolean ignoreSsl)
+            throws ObjectDisposedException, ArgumentException, SafeguardForJavaException {
+        if (networkAddress == null || username == null || password == null)
+            throw new ArgumentException("The networkAddress, username and password parameters can not be null");
+        String identity = String.format("Password|%s|%s", Utils.isNullOrEmpty(provider) ? "local" : provider.toLowerCase(Locale.ROOT), username);
+        return getConnection(createKey(networkAddress, apiVersion, ignoreSsl, identity, digest(password)),
+                () -> Safeguard.connect(networkAddress, provider, username, password, apiVersion, ignoreSsl));
+    }
+
+    /**
+     *  Lease a connection authenticated with a client certificate from a keystore.
+     *
+     *  @param networkAddress Network address of Safeguard appliance.
+     *  @param keystorePath Path to the keystore containing the client certificate.
+     *  @param keystorePassword Keystore password.
+     *  @param certificateAlias Alias of the client certificate in the keystore.
+     *  @param apiVersion Target API version to use.
+     *  @param ignoreSsl Ignore server certificate validation.
+     *
+     *  @return Pooled Safeguard API connection, dispose it to return it to the pool.
+     *  @throws ObjectDisposedException The pool has already been disposed.
+     *  @throws ArgumentException Invalid argument.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */
+    public ISafeguardConnection getConnection(String networkAddress, String keystorePath,
+            char[] keystorePassword, String certificateAlias, Integer apiVersion, Boolean ignoreSsl)
+            throws ObjectDisposedException, ArgumentException, SafeguardForJavaException {
+        if (networkAddress == null || keystorePath == null || keystorePassword == null)
+            throw new ArgumentException("The networkAddress, keystorePath and keystorePassword parameters can not be null");
+        String identity = String.format("Keystore|%s|%s", keystorePath, certificateAlias);
+        return getConnection(createKey(networkAddress, apiVersion, ignoreSsl, identity, digest(keystorePassword)),
+                () -> Safeguard.connect(networkAddress, keystorePath, keystorePassword, certificateAlias, apiVersion, ignoreSsl));
+    }
+
+    /**
+     *  Lease a connection authenticated with a client certificate file.
+     *
+     *  @param networkAddress Network address of Safeguard appliance.
+     *  @param certificatePath Path to the PFX (or PKCS12) certificate file.
+     *  @param certificatePassword Password to decrypt the certificate.
+     *  @param apiVersion Target API version to use.
+     *  @param ignoreSsl Ignore server certificate validation.
+     *
+     *  @return Pooled Safeguard API connection, dispose it to return it to the pool.
+     *  @throws ObjectDisposedException The pool has already been disposed.
+     *  @throws ArgumentException Invalid argument.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */
+    public ISafeguardConnection getConnection(String networkAddress, String certificatePath,
+            char[] certificatePassword, Integer apiVersion, Boolean ignoreSsl)
+            throws ObjectDisposedException, ArgumentException, SafeguardForJavaException {
+        if (networkAddress == null || certificatePath == null || certificatePassword == null)
+            throw new ArgumentException("The networkAddress, certificatePath and certificatePassword parameters can not be null");
+        String identity = String.format("Certificate|%s", certificatePath);
+        return getConnection(createKey(networkAddress, apiVersion, ignoreSsl, identity, digest(certificatePassword)),
+                () -> Safeguard.connect(networkAddress, certificatePath, certificatePassword, apiVersion, ignoreSsl));
+    }
+
+    /**
+     *  Lease a connection authenticated with client certificate data.
+     *
+     *  @param networkAddress Network address of Safeguard appliance.
+     *  @param certificateData Bytes containing a PFX (or PKCS12) formatted certificate and private key.
+     *  @param certificatePassword Password to decrypt the certificate.
+     *  @param certificateAlias Alias of the client certificate.
+     *  @param apiVersion Target API version to use.
+     *  @param ignoreSsl Ignore server certificate validation.
+     *
+     *  @return Pooled Safeguard API connection, dispose it to return it to the pool.
+     *  @throws ObjectDisposedException The pool has already been disposed.
+     *  @throws ArgumentException Invalid argument.
+     *  @throws SafeguardForJavaException General Safeguard for Java exception.
+     */
+    public ISafeguardConnection getConnection(String networkAddress, byte[] certificateData,
+            char[] certificatePassword, String certificateAlias, Integer apiVersion, Boolean ignoreSsl)
+            throws ObjectDisposedException, ArgumentException, SafeguardForJavaException {
+        if (networkAddress == null || certificateData == null || certificatePassword == null)
+            throw new ArgumentException("The networkAddress, certificateData and certificatePassword parameters can not be null");
+        String identity = String.format("CertificateData|%s|%s", digest(certificateData), certificateAlias);
+        return getConnection(createKey(networkAddress, apiVersion, ignoreSsl, identity, digest(certificatePassword)),
+                () -> Safeguard.connect(networkAddress, certificateData, certificatePassword, certificateAlias, apiVersion, ignoreSsl));
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getIdleTimeout() {
+        return TimeUnit.NANOSECONDS.toSeconds(idleTimeoutNanos);
+    }
+
+    /**
+     * Gets the number of connections in the pool, leased or not.
+     *
+     * @return Number of connections.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of leases that reused a connection of the pool.
+     *
+     * @return Number of pool hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of leases that had to log in.
+     *
+     * @return Number of pool misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the fraction of leases that reused a connection of the pool.
+     *
+     * @return Hit ratio between 0 and 1.
+     */
+    public synchronized double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the number of connections evicted because they were idle or the pool was full.
+     *
+     * @return Number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Logs out and removes every connection that is not leased.
+     */
+    public void clear() {
+        List<ISafeguardConnection> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.leases == 0) {
+                    iterator.remove();
+                    if (entry.connection != null)
+                        removed.add(entry.connection);
+                }
+            }
+        }
+        logOutAsync(removed);
+    }
+
+    /**
+     * Logs out every connection of the pool, including leased ones, and stops the pool.
+     */
+    public void dispose() {
+        List<Entry> removed;
+        synchronized (this) {
+            if (disposed)
+                return;
+            disposed = true;
+            removed = new ArrayList<>(entries.values());
+            entries.clear();
+        }
+        executor.shutdownNow();
+        for (Entry entry : removed) {
+            if (entry.connection != null)
+                logOut(entry.connection, false);
+        }
+    }
+
+    private ISafeguardConnection getConnection(String key, ConnectionFactory factory)
+            throws ObjectDisposedException, ArgumentException, SafeguardForJavaException {
+
+        while (true) {
+            Entry entry;
+            synchronized (this) {
+                if (disposed)
+                    throw new ObjectDisposedException("SafeguardConnectionPool");
+                entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry(key);
+                    entries.put(key, entry);
+                }
+                entry.leases++;
+            }
+
+            try {
+                boolean created;
+                ISafeguardConnection connection;
+                synchronized (entry) {
+                    if (entry.invalidated) {
+                        // Removed from the pool while waiting for another caller to log in
+                        release(entry);
+                        continue;
+                    }
+                    created = entry.connection == null;
+                    if (created) {
+                        entry.connection = factory.connect();
+                    } else {
+                        entry.connection.refreshExpiredAccessToken();
+                    }
+                    connection = entry.connection;
+                }
+                synchronized (this) {
+                    if (created)
+                        missCount++;
+                    else
+                        hitCount++;
+                }
+                evict();
+                return new PooledSafeguardConnection(this, entry, connection);
+            } catch (ObjectDisposedException | ArgumentException | SafeguardForJavaException | RuntimeException ex) {
+                abandon(entry);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Releases a lease that could not be handed out because logging in failed. The failure may be
+     * transient, so a connection that other callers still lease is kept, its access token is
+     * refreshed again on the next lease. The entry is only removed once it is no longer leased.
+     */
+    private void abandon(Entry entry) {
+        ISafeguardConnection connection;
+        synchronized (this) {
+            entry.leases--;
+            entry.lastUsed = System.nanoTime();
+            if (entry.leases > 0 || entry.invalidated)
+                return;
+            entry.invalidated = true;
+            if (entries.get(entry.key) == entry)
+                entries.remove(entry.key);
+            connection = entry.connection;
+            entry.connection = null;
+        }
+        if (connection != null)
+            logOutAsync(Arrays.asList(connection));
+    }
+
+    synchronized void release(Entry entry) {
+        entry.leases--;
+        entry.lastUsed = System.nanoTime();
+    }
+
+    void invalidate(Entry entry) {
+        ISafeguardConnection connection;
+        synchronized (this) {
+            entry.leases--;
+            entry.invalidated = true;
+            if (entries.get(entry.key) == entry)
+                entries.remove(entry.key);
+            connection = entry.connection;
+            entry.connection = null;
+        }
+        if (connection != null) {
+            try {
+                executor.execute(() -> logOut(connection, true));
+            } catch (RuntimeException ex) {
+                // The pool has been disposed
+                logOut(connection, true);
+            }
+        }
+    }
+
+    private void evict() {
+        List<ISafeguardConnection> removed = new ArrayList<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            int size = entries.size();
+            // Iterates from the least recently used connection
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.leases > 0 || entry.connection == null)
+                    continue;
+                if (size > maxSize || now - entry.lastUsed > idleTimeoutNanos) {
+                    iterator.remove();
+                    size--;
+                    evictionCount++;
+                    removed.add(entry.connection);
+                }
+            }
+        }
+        logOutAsync(removed);
+    }
+
+    private void logOutAsync(List<ISafeguardConnection> connections) {
+        for (ISafeguardConnection connection : connections) {
+            try {
+                executor.execute(() -> logOut(connection, false));
+            } catch (RuntimeException ex) {
+                // The pool has been disposed
+                logOut(connection, false);
+            }
+        }
+    }
+
+    /**
+     * Logs out a connection removed from the pool. Unless a lease asked for it, the session of a
+     * token from the token store is not logged out, other connections may still be using it.
+     */
+    private static void logOut(ISafeguardConnection connection, boolean requested) {
+        try {
+            if (!requested && connection instanceof SafeguardConnection && ((SafeguardConnection) connection).isAccessTokenStored()) {
+                Logger.getLogger(SafeguardConnectionPool.class.getName()).log(Level.FINEST, "Pooled connection uses a stored access token, leaving its session to other connections");
+            } else {
+                connection.logOut();
+            }
+        } catch (ObjectDisposedException | RuntimeException ex) {
+            Logger.getLogger(SafeguardConnectionPool.class.getName()).log(Level.FINEST, "Exception occurred logging out pooled connection", ex);
+        }
+        connection.dispose();
+    }
+
+    private static String createKey(String networkAddress, Integer apiVersion, Boolean ignoreSsl, String identity, String secret) {
+        return String.format("%s|%d|%s|%s|%s", networkAddress.toLowerCase(Locale.ROOT),
+                apiVersion == null ? DEFAULTAPIVERSION : apiVersion, ignoreSsl != null && ignoreSsl, identity, secret);
+    }
+
+    // Secrets are only kept in the keys as an HMAC under the random key of this pool, unlike a plain
+    // digest it cannot be checked against guessed passwords without that key
+    private String digest(char[] secret) throws SafeguardForJavaException {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(secret));
+        byte[] data = Arrays.copyOf(bytes.array(), bytes.limit());
+        Arrays.fill(bytes.array(), (byte) 0);
+        try {
+            return digest(data);
+        } finally {
+            Arrays.fill(data, (byte) 0);
+        }
+    }
+
+    private String digest(byte[] data) throws SafeguardForJavaException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(keySecret, "HmacSHA256"));
+            return Base64.getEncoder().encodeToString(mac.doFinal(data));
+        } catch (GeneralSecurityException ex) {
+            throw new SafeguardForJavaException("Unable to create connection pool key", ex);
+        }
+    }
+
+    private interface ConnectionFactory {
+
+        ISafeguardConnection connect() throws ObjectDisposedException, ArgumentException, SafeguardForJavaException;
+    }
+
+    static class Entry {
+
+        final String key;
+        volatile ISafeguardConnection connection;
+        volatile boolean invalidated;
+        int leases;
+        long lastUsed = System.nanoTime();
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.oneidentity.safeguard.safeguardjava.data.Service;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.http.Header;
+
+/**
+ * An in-memory cache of Safeguard API GET responses that carry an ETag or Last-Modified header.
+ * A cached response is never returned without asking the appliance first: the next GET of the
+ * same URL is sent with If-None-Match or If-Modified-Since, and when the appliance answers
+ * 304 Not Modified the cached body is returned instead of downloading it again.
+ * <p>
+ * Entries are keyed by service, URL, query parameters, Accept header and access token, so a
+ * cache can safely be shared between connections. The least recently used entries are evicted
+ * when the cached bodies exceed the configured number of bytes.
+ */
+public class SafeguardResponseCache {
+
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private final long maxBytes;
+    private long currentBytes;
+    private long hitCount;
+    private long missCount;
+    private long bytesSaved;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Creates a cache holding up to 16 MB of response bodies.
+     */
+    public SafeguardResponseCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxBytes Maximum total size of the cached response bodies.
+     */
+    public SafeguardResponseCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the total size of the cached response bodies.
+     *
+     * @return Size in bytes.
+     */
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the number of requests answered from the cache after a 304 Not Modified.
+     *
+     * @return Number of cache hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of cacheable requests whose body had to be downloaded.
+     *
+     * @return Number of cache misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the fraction of cacheable requests answered from the cache.
+     *
+     * @return Hit ratio between 0 and 1.
+     */
+    public synchronized double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Gets the total size of the response bodies that did not have to be downloaded.
+     *
+     * @return Size in bytes.
+     */
+    public synchronized long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+        hitCount = 0;
+        missCount = 0;
+        bytesSaved = 0;
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void recordHit(Entry entry) {
+        hitCount++;
+        bytesSaved += entry.size;
+    }
+
+    synchronized void recordMiss() {
+        missCount++;
+    }
+
+    synchronized void put(String key, Entry entry) {
+        Entry previous = entries.remove(key);
+        if (previous != null)
+            currentBytes -= previous.size;
+        if (entry.size > maxBytes)
+            return;
+
+        entries.put(key, entry);
+        currentBytes += entry.size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (currentBytes > maxBytes && eldest.hasNext()) {
+            currentBytes -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    synchronized void remove(String key) {
+        Entry previous = entries.remove(key);
+        if (previous != null)
+            currentBytes -= previous.size;
+    }
+
+    static String createKey(Service service, String relativeUrl, Map<String, String> parameters,
+            String accept, char[] accessToken) {
+
+        StringBuilder key = new StringBuilder();
+        key.append(service).append(' ').append(relativeUrl);
+        if (parameters != null) {
+            // Sorted so the key does not depend on the iteration order of the caller's map
+            key.append(new TreeMap<>(parameters));
+        }
+        key.append("|accept:").append(accept);
+        if (accessToken != null) {
+            // Only a digest of the token is kept so the cache does not hold credentials
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(accessToken));
+            byte[] token = Arrays.copyOf(bytes.array(), bytes.limit());
+            Arrays.fill(bytes.array(), (byte) 0);
+            try {
+                MessageDigest digest = MessageDigest.getInstance("SHA-256");
+                key.append("|token:").append(Base64.getEncoder().encodeToString(digest.digest(token)));
+            } catch (NoSuchAlgorithmException ex) {
+                return null;
+            } finally {
+                Arrays.fill(token, (byte) 0);
+            }
+        }
+        return key.toString();
+    }
+
+    static class Entry {
+
+        final int statusCode;
+        final Header[] headers;
+        final String body;
+        final String etag;
+        final String lastModified;
+        final long size;
+
+        Entry(int statusCode, Header[] headers, String body, String etag, String lastModified) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = body == null ? 0 : body.getBytes(StandardCharsets.UTF_8).length;
+        }
+    }
+}
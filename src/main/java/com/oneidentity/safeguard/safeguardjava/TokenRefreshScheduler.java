@@ -0,0 +1,147 @@
+package com.oneidentity.safeguard.safeguardjava;
+
+import com.oneidentity.safeguard.safeguardjava.authentication.IAuthenticationMechanism;
+import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes the access token of a connection in the background before it expires. After each
+ * refresh the remaining lifetime of the new token is read and the next refresh is scheduled
+ * once the configured fraction of that lifetime has passed. The authenticator replaces its
+ * token in a single assignment, so requests already in flight keep using the old token.
+ * <p>
+ * A refresh is skipped when another caller has replaced the token since it was scheduled.
+ * Stopping waits for a refresh that is already running, and a token obtained after the scheduler
+ * was stopped is thrown away, so no token is installed once a connection has logged out.
+ * All schedulers share a small pool of daemon threads, so a login that hangs on an unresponsive
+ * appliance does not hold up the refreshes of other connections. A failed refresh is retried
+ * with exponential backoff.
+ */
+class TokenRefreshScheduler {
+
+    static final double DEFAULT_REFRESH_FRACTION = 0.75;
+
+    private static final long MIN_DELAY_SECONDS = 30;
+    private static final long INITIAL_RETRY_DELAY_SECONDS = 15;
+    private static final long MAX_RETRY_DELAY_SECONDS = 300;
+
+    private static final int REFRESH_THREADS = 4;
+    private static final long IDLE_THREAD_SECONDS = 60;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+    private static final ScheduledExecutorService executor = createExecutor();
+
+    private final IAuthenticationMechanism authenticationMechanism;
+    private final double refreshFraction;
+    private ScheduledFuture<?> next;
+    private long retryDelaySeconds = INITIAL_RETRY_DELAY_SECONDS;
+    private boolean stopped;
+    private Thread runner;
+
+    TokenRefreshScheduler(IAuthenticationMechanism authenticationMechanism, double refreshFraction) {
+        this.authenticationMechanism = authenticationMechanism;
+        this.refreshFraction = refreshFraction;
+    }
+
+    double getRefreshFraction() {
+        return refreshFraction;
+    }
+
+    private static ScheduledExecutorService createExecutor() {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(REFRESH_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "SafeguardTokenRefresh-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Threads are only kept while refreshes are due, cancelled refreshes do not linger in the queue
+        pool.setKeepAliveTime(IDLE_THREAD_SECONDS, TimeUnit.SECONDS);
+        pool.allowCoreThreadTimeOut(true);
+        pool.setRemoveOnCancelPolicy(true);
+        return pool;
+    }
+
+    synchronized void start() {
+        schedule(0, false);
+    }
+
+    synchronized void stop() {
+        stopped = true;
+        if (next != null)
+            next.cancel(false);
+        next = null;
+        boolean interrupted = false;
+        while (runner != null && runner != Thread.currentThread()) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    private synchronized void schedule(long delaySeconds, boolean refresh) {
+        if (stopped)
+            return;
+        // The token to replace, skipped if a refresh made by a request already replaced it
+        char[] scheduledAccessToken;
+        try {
+            scheduledAccessToken = refresh ? authenticationMechanism.getAccessToken() : null;
+        } catch (ObjectDisposedException ex) {
+            stopped = true;
+            return;
+        }
+        next = executor.schedule(() -> run(refresh, scheduledAccessToken), delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void run(boolean refresh, char[] scheduledAccessToken) {
+        synchronized (this) {
+            if (stopped)
+                return;
+            runner = Thread.currentThread();
+        }
+        try {
+            if (refresh) {
+                authenticationMechanism.refreshAccessToken(scheduledAccessToken, this::isStopped);
+                Logger.getLogger(TokenRefreshScheduler.class.getName()).log(Level.FINEST, "Access token refreshed in the background");
+            }
+            int remaining = authenticationMechanism.getAccessTokenLifetimeRemaining();
+            if (remaining <= 0 && !refresh) {
+                // The token has already expired, refresh it now rather than at the next request
+                schedule(0, true);
+                return;
+            }
+
+            long delaySeconds = Math.max(MIN_DELAY_SECONDS, (long) (remaining * 60 * refreshFraction));
+            Logger.getLogger(TokenRefreshScheduler.class.getName()).log(Level.FINEST,
+                    String.format("Access token lifetime remaining %d minutes, next refresh in %d seconds", remaining, delaySeconds));
+            retryDelaySeconds = INITIAL_RETRY_DELAY_SECONDS;
+            schedule(delaySeconds, true);
+        } catch (ObjectDisposedException ex) {
+            stop();
+        } catch (SafeguardForJavaException | RuntimeException ex) {
+            Logger.getLogger(TokenRefreshScheduler.class.getName()).log(Level.WARNING,
+                    String.format("Background access token refresh failed, retrying in %d seconds", retryDelaySeconds), ex);
+            long delaySeconds = retryDelaySeconds;
+            retryDelaySeconds = Math.min(MAX_RETRY_DELAY_SECONDS, retryDelaySeconds * 2);
+            schedule(delaySeconds, refresh);
+        } finally {
+            synchronized (this) {
+                runner = null;
+                notifyAll();
+            }
+        }
+    }
+}
@@ -1,20 +1,29 @@
 package com.oneidentity.safeguard.safeguardjava;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.oneidentity.safeguard.safeguardjava.authentication.PasswordAuthenticator;
+import com.oneidentity.safeguard.safeguardjava.data.JsonObject;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
 import org.apache.http.ParseException;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.util.EntityUtils;
 
 public class Utils {
 
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
     private Utils() {
     }
 
@@ -29,6 +38,35 @@ public class Utils {
         return "";
     }
 
+    /**
+     * Creates a JSON generator that writes UTF-8 to a stream. Closing the generator flushes it
+     * but does not close the stream.
+     * 
+     * @param out Stream to write to.
+     * @return The generator.
+     * @throws IOException Error creating the generator.
+     */
+    public static JsonGenerator createJsonGenerator(OutputStream out) throws IOException {
+        return jsonFactory.createGenerator(out);
+    }
+
+    /**
+     * Gets the JSON of an object by way of its {@link JsonObject#writeTo(OutputStream)}.
+     * 
+     * @param jsonObject Object to serialize.
+     * @return The JSON.
+     */
+    public static String toJson(JsonObject jsonObject) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            jsonObject.writeTo(out);
+        } catch (IOException ex) {
+            Logger.getLogger(Utils.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     public static Map<String, String> parseResponse(String response) {
 
         ObjectMapper mapper = new ObjectMapper();
@@ -43,7 +81,7 @@ public class Utils {
         return map;
     }
 
-    public static String getResponse(CloseableHttpResponse response) {
+    public static String getResponse(HttpResponse response) {
         HttpEntity entity = response.getEntity();
         if (entity != null) {
             try {
@@ -15,7 +15,7 @@ public class AccessTokenAuthenticator extends AuthenticatorBase
         if (accessToken == null)
             throw new ArgumentException("The accessToken parameter can not be null");
         
-        this.accessToken = accessToken.clone();
+        setAccessToken(accessToken.clone());
     }
 
     @Override
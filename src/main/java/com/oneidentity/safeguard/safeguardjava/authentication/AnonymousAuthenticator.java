@@ -28,6 +28,7 @@ public class AnonymousAuthenticator extends AuthenticatorBase {
         }
         
         String reply = Utils.getResponse(response);
+        notificationClient.dispose();
 
         if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) {
             throw new SafeguardForJavaException("Unable to anonymously connect to {networkAddress}, Error: "
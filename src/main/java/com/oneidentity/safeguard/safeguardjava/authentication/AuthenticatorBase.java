@@ -1,15 +1,29 @@
 package com.oneidentity.safeguard.safeguardjava.authentication;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oneidentity.safeguard.safeguardjava.Safeguard;
 import com.oneidentity.safeguard.safeguardjava.Utils;
 import com.oneidentity.safeguard.safeguardjava.data.AccessTokenBody;
+import com.oneidentity.safeguard.safeguardjava.data.StoredAccessToken;
 import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
 import com.oneidentity.safeguard.safeguardjava.restclient.RestClient;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import javax.net.ssl.HostnameVerifier;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
 
 abstract class AuthenticatorBase implements IAuthenticationMechanism
 {
@@ -20,7 +34,15 @@ abstract class AuthenticatorBase implements IAuthenticationMechanism
     private final boolean ignoreSsl;
     private final HostnameVerifier validationCallback;
     
-    protected char[] accessToken;
+    // Reads are lock-free, a refresh swaps in a new holder so in-flight requests keep the old token
+    private final AtomicReference<AccessToken> accessToken = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<AccessToken>> refreshInFlight = new AtomicReference<>();
+    // Stored tokens closer to expiry than this are not reused
+    private static final long MIN_STORED_TOKEN_LIFETIME = 120000;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    // Lifetime in seconds reported by the RSTS with the last RSTS token, zero if unknown
+    private volatile long rstsTokenExpiresIn;
 
     protected final String safeguardRstsUrl;
     protected final String safeguardCoreUrl;
@@ -70,38 +92,93 @@ abstract class AuthenticatorBase implements IAuthenticationMechanism
     
     @Override
     public boolean hasAccessToken() {
-        return accessToken != null;
+        return accessToken.get() != null;
     }
 
     @Override
     public void clearAccessToken() {
-        if (accessToken != null)
-            Arrays.fill(accessToken, '0');
-        accessToken = null;
+        AccessToken token = accessToken.getAndSet(null);
+        if (token != null)
+            Arrays.fill(token.value, '0');
     }
             
     @Override
     public char[] getAccessToken() throws ObjectDisposedException {
         if (disposed)
             throw new ObjectDisposedException("AuthenticatorBase");
-        return accessToken;
+        return currentAccessToken();
+    }
+
+    protected char[] currentAccessToken() {
+        AccessToken token = accessToken.get();
+        return token == null ? null : token.value;
+    }
+
+    protected void setAccessToken(char[] token) {
+        accessToken.set(token == null ? null : new AccessToken(token, getJwtExpiry(token)));
+    }
+
+    /**
+     * Copies the access token of another authenticator along with its known expiry.
+     */
+    protected void copyAccessToken(AuthenticatorBase other) {
+        AccessToken token = other.accessToken.get();
+        accessToken.set(token == null ? null : new AccessToken(token.value.clone(), token.expiresAt, token.stored));
     }
 
+    /**
+     * Records the lifetime of the RSTS token, used as the expiry of the API access token it is
+     * exchanged for when that token does not carry its own expiry.
+     */
+    protected void setRstsTokenExpiresIn(String expiresIn) {
+        long seconds = 0;
+        if (expiresIn != null) {
+            try {
+                seconds = Long.parseLong(expiresIn.trim());
+            } catch (NumberFormatException ex) {
+            }
+        }
+        rstsTokenExpiresIn = Math.max(0, seconds);
+    }
+
+    /**
+     * Gets the remaining lifetime of the access token from its locally tracked expiry. The
+     * appliance is only asked when the expiry is not known yet.
+     */
     @Override
     public int getAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
         if (disposed)
             throw new ObjectDisposedException("AuthenticatorBase");
-        if (!hasAccessToken())
+        AccessToken token = accessToken.get();
+        if (token == null)
+            return 0;
+        if (token.expiresAt == 0)
+            return queryAccessTokenLifetimeRemaining();
+        return (int) Math.max(0, (token.expiresAt - System.currentTimeMillis()) / 60000);
+    }
+
+    @Override
+    public int queryAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
+        if (disposed)
+            throw new ObjectDisposedException("AuthenticatorBase");
+        AccessToken token = accessToken.get();
+        if (token == null)
             return 0;
         
         Map<String,String> headers = new HashMap<>();
-        headers.put("Authorization", String.format("Bearer %s", new String(accessToken)));
+        headers.put("Authorization", String.format("Bearer %s", new String(token.value)));
         headers.put("X-TokenLifetimeRemaining", "");
         
         CloseableHttpResponse response = coreClient.execGET("LoginMessage", null, headers);
         
         if (response == null)
             throw new SafeguardForJavaException(String.format("Unable to connect to web service %s", coreClient.getBaseURL()));
+        // Release the pooled connection, only the status and headers are needed
+        EntityUtils.consumeQuietly(response.getEntity());
+        if (response.getStatusLine().getStatusCode() == HttpStatus.SC_UNAUTHORIZED) {
+            updateExpiry(token, System.currentTimeMillis());
+            return 0;
+        }
         if (!Utils.isSuccessful(response.getStatusLine().getStatusCode())) 
             return 0;
 
@@ -113,7 +190,8 @@ abstract class AuthenticatorBase implements IAuthenticationMechanism
         int remaining = 10; // Random magic value... the access token was good, but for some reason it didn't return the remaining lifetime
         if (remainingStr != null) {
             try {
-                remaining = Integer.parseInt(remainingStr);
+                remaining = Integer.parseInt(remainingStr.trim());
+                updateExpiry(token, System.currentTimeMillis() + remaining * 60000L);
             }
             catch (Exception e) {
             }
@@ -122,12 +200,263 @@ abstract class AuthenticatorBase implements IAuthenticationMechanism
         return remaining;
     }
 
+    /**
+     * Records the remaining lifetime reported by a response. It is only applied if the token
+     * sent with the request is still the current one, a response to a request made with a token
+     * that has since been replaced says nothing about the new token.
+     */
+    @Override
+    public void updateAccessTokenLifetime(char[] sentAccessToken, int minutes) {
+        AccessToken token = accessToken.get();
+        if (token != null && token.value == sentAccessToken && minutes >= 0)
+            updateExpiry(token, System.currentTimeMillis() + minutes * 60000L);
+    }
+
+    private void updateExpiry(AccessToken token, long expiresAt) {
+        // The appliance reports whole minutes, keep a more precise expiry that agrees with it
+        if (token.expiresAt != 0 && Math.abs(token.expiresAt - expiresAt) < 60000)
+            return;
+        accessToken.compareAndSet(token, new AccessToken(token.value, expiresAt, token.stored));
+    }
+
+    private static long getJwtExpiry(char[] token) {
+        // Only the claims segment is decoded, read straight from the token without copying it
+        int start = indexOf(token, '.', 0) + 1;
+        int end = start == 0 ? -1 : indexOf(token, '.', start);
+        if (end <= start || indexOf(token, '.', end + 1) >= 0)
+            return 0;
+        byte[] segment = new byte[end - start];
+        byte[] claims = null;
+        try {
+            for (int i = start; i < end; i++) {
+                if (token[i] > 0x7f)
+                    return 0;
+                segment[i - start] = (byte) token[i];
+            }
+            claims = Base64.getUrlDecoder().decode(segment);
+            JsonNode node = mapper.readTree(claims);
+            JsonNode exp = node == null ? null : node.get("exp");
+            return exp != null && exp.canConvertToLong() ? exp.asLong() * 1000 : 0;
+        } catch (IOException | IllegalArgumentException ex) {
+            return 0;
+        } finally {
+            Arrays.fill(segment, (byte) 0);
+            if (claims != null)
+                Arrays.fill(claims, (byte) 0);
+        }
+    }
+
+    private static int indexOf(char[] chars, char c, int from) {
+        for (int i = from; i < chars.length; i++) {
+            if (chars[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets a new access token. Concurrent calls are collapsed into a single RSTS login and token
+     * exchange, every caller waits for it and gets its outcome.
+     */
     @Override
     public void refreshAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+        refreshAccessToken(null, true, null);
+    }
+
+    /**
+     * Gets a new access token unless the token the caller saw expire has already been replaced
+     * by another refresh, in which case the caller uses that token rather than logging in again.
+     */
+    @Override
+    public void refreshAccessToken(char[] expiredAccessToken) throws ObjectDisposedException, SafeguardForJavaException {
+        refreshAccessToken(expiredAccessToken, false, null);
+    }
+
+    /**
+     * Gets a new access token like {@link #refreshAccessToken(char[])}, but throws away the new
+     * token instead of using or storing it if the caller no longer wants it once it is obtained.
+     */
+    @Override
+    public void refreshAccessToken(char[] expiredAccessToken, BooleanSupplier cancelled) throws ObjectDisposedException, SafeguardForJavaException {
+        refreshAccessToken(expiredAccessToken, false, cancelled);
+    }
+
+    private void refreshAccessToken(char[] expiredAccessToken, boolean force, BooleanSupplier cancelled)
+            throws ObjectDisposedException, SafeguardForJavaException {
         
         if (disposed)
             throw new ObjectDisposedException("AuthenticatorBase");
         
+        CompletableFuture<AccessToken> refresh = new CompletableFuture<>();
+        while (!refreshInFlight.compareAndSet(null, refresh)) {
+            CompletableFuture<AccessToken> inFlight = refreshInFlight.get();
+            if (inFlight != null) {
+                awaitRefresh(inFlight);
+                return;
+            }
+        }
+
+        try {
+            // Checked once this thread owns the refresh, a refresh that finished before then has
+            // already replaced the token; tokens updated in place keep their value array
+            AccessToken current = accessToken.get();
+            if (!force && current != null && current.value != expiredAccessToken) {
+                Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.FINEST, "Access token was already refreshed, skipping the refresh");
+                refresh.complete(current);
+                return;
+            }
+            ITokenStore store = Safeguard.getTokenStore();
+            String key = store == null ? null : getTokenStoreKey();
+            AccessToken token = key == null ? obtainAccessToken() : obtainAccessToken(store, key, cancelled);
+            if (token != null && cancelled != null && cancelled.getAsBoolean()) {
+                Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.FINEST, "Access token refresh was cancelled, discarding the new token");
+                discardAccessToken(token);
+                token = null;
+            }
+            if (token != null)
+                accessToken.set(token);
+            refresh.complete(accessToken.get());
+        } catch (ObjectDisposedException | SafeguardForJavaException | RuntimeException ex) {
+            refresh.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            refreshInFlight.compareAndSet(refresh, null);
+        }
+    }
+
+    private AccessToken obtainAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+        rstsTokenExpiresIn = 0;
+        char[] token = exchangeAccessToken();
+        if (token == null)
+            return null;
+        long expiresAt = getJwtExpiry(token);
+        long expiresIn = rstsTokenExpiresIn;
+        if (expiresAt == 0 && expiresIn > 0)
+            expiresAt = System.currentTimeMillis() + expiresIn * 1000;
+        return new AccessToken(token, expiresAt);
+    }
+
+    private AccessToken obtainAccessToken(ITokenStore store, String key, BooleanSupplier cancelled)
+            throws ObjectDisposedException, SafeguardForJavaException {
+
+        ITokenStore.Lock lock;
+        try {
+            lock = store.lock(key);
+        } catch (SafeguardForJavaException ex) {
+            Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.WARNING, "Unable to use the token store", ex);
+            return obtainAccessToken();
+        }
+
+        try {
+            char[] secret = getTokenStoreSecret();
+            StoredAccessToken stored = null;
+            try {
+                stored = store.load(key, secret);
+            } catch (SafeguardForJavaException ex) {
+                Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.WARNING, "Unable to load the stored access token", ex);
+            }
+
+            // A stored token equal to the current one is the token being replaced
+            AccessToken current = accessToken.get();
+            if (stored != null && stored.getExpiresAt() - System.currentTimeMillis() > MIN_STORED_TOKEN_LIFETIME
+                    && (current == null || !Arrays.equals(current.value, stored.getAccessToken()))) {
+                Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.FINEST, "Using the access token from the token store");
+                return new AccessToken(stored.getAccessToken(), stored.getExpiresAt(), true);
+            }
+            if (stored != null)
+                stored.clear();
+
+            AccessToken token = obtainAccessToken();
+            if (token != null && token.expiresAt != 0 && (cancelled == null || !cancelled.getAsBoolean())) {
+                try {
+                    store.save(key, secret, new StoredAccessToken(token.value, token.expiresAt));
+                    token = new AccessToken(token.value, token.expiresAt, true);
+                } catch (SafeguardForJavaException ex) {
+                    Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.WARNING, "Unable to save the access token", ex);
+                }
+            }
+            return token;
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Throws away a token that will not be used. A token of its own session is logged out, a
+     * token from the token store is left to the other holders of its session.
+     */
+    private void discardAccessToken(AccessToken token) {
+        if (!token.stored) {
+            Map<String,String> headers = new HashMap<>();
+            headers.put("Authorization", String.format("Bearer %s", new String(token.value)));
+            CloseableHttpResponse response = coreClient.execPOST("Token/Logout", null, headers, null);
+            if (response != null)
+                EntityUtils.consumeQuietly(response.getEntity());
+        }
+        Arrays.fill(token.value, '0');
+    }
+
+    /**
+     * Gets whether the current token was loaded from or saved to the token store, so other
+     * connections with the same credentials may be using its session.
+     */
+    @Override
+    public boolean isAccessTokenStored() {
+        AccessToken token = accessToken.get();
+        return token != null && token.stored;
+    }
+
+    @Override
+    public void removeStoredAccessToken() {
+        ITokenStore store = Safeguard.getTokenStore();
+        String key = store == null ? null : getTokenStoreKey();
+        if (key == null)
+            return;
+        try {
+            store.remove(key);
+        } catch (SafeguardForJavaException ex) {
+            Logger.getLogger(AuthenticatorBase.class.getName()).log(Level.WARNING, "Unable to remove the stored access token", ex);
+        }
+    }
+
+    /**
+     * Gets the key identifying the appliance and identity of this authenticator in a token store.
+     *
+     * @return The key, or null if tokens of this authenticator are not stored.
+     */
+    protected String getTokenStoreKey() {
+        return null;
+    }
+
+    /**
+     * Gets the secret protecting the stored tokens of this authenticator.
+     *
+     * @return The secret.
+     */
+    protected char[] getTokenStoreSecret() {
+        return null;
+    }
+
+    private void awaitRefresh(CompletableFuture<AccessToken> inFlight) throws ObjectDisposedException, SafeguardForJavaException {
+        try {
+            inFlight.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SafeguardForJavaException("Interrupted while waiting for the access token to be refreshed", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof ObjectDisposedException)
+                throw (ObjectDisposedException) cause;
+            if (cause instanceof SafeguardForJavaException)
+                throw (SafeguardForJavaException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new SafeguardForJavaException("Unable to refresh the access token", ex);
+        }
+    }
+
+    private char[] exchangeAccessToken() throws ObjectDisposedException, SafeguardForJavaException {
+
         char[] rStsToken = getRstsTokenInternal();
         AccessTokenBody body = new AccessTokenBody(rStsToken);
         CloseableHttpResponse response = coreClient.execPOST("Token/LoginResponse", null, null, body);
@@ -142,7 +471,8 @@ abstract class AuthenticatorBase implements IAuthenticationMechanism
 
         Map<String,String> map = Utils.parseResponse(reply);
         if (map.containsKey("UserToken"))
-            accessToken =  map.get("UserToken").toCharArray();
+            return map.get("UserToken").toCharArray();
+        return null;
     }
 
     protected abstract char[] getRstsTokenInternal() throws ObjectDisposedException, SafeguardForJavaException;
@@ -153,19 +483,43 @@ abstract class AuthenticatorBase implements IAuthenticationMechanism
     public void dispose()
     {
         clearAccessToken();
+        rstsClient.dispose();
+        coreClient.dispose();
         disposed = true;
     }
 
     @Override
     protected void finalize() throws Throwable {
         try {
-            
-            if (accessToken != null)
-                Arrays.fill(accessToken, '0');
+            AccessToken token = accessToken.get();
+            if (token != null)
+                Arrays.fill(token.value, '0');
         } finally {
             disposed = true;
             super.finalize();
         }
     }
-    
+
+    /**
+     * Immutable holder of an access token and its expiry, replaced as a whole when the token is
+     * refreshed or a new expiry is learned.
+     */
+    private static final class AccessToken {
+
+        final char[] value;
+        // Milliseconds since the epoch, zero if unknown
+        final long expiresAt;
+        // Whether the token is in the token store, where other connections may share its session
+        final boolean stored;
+
+        AccessToken(char[] value, long expiresAt) {
+            this(value, expiresAt, false);
+        }
+
+        AccessToken(char[] value, long expiresAt, boolean stored) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.stored = stored;
+        }
+    }
 }
@@ -5,6 +5,11 @@ import com.oneidentity.safeguard.safeguardjava.data.CertificateContext;
 import com.oneidentity.safeguard.safeguardjava.data.OauthBody;
 import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
 import java.util.Map;
 import javax.net.ssl.HostnameVerifier;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -77,16 +82,42 @@ public class CertificateAuthenticator extends AuthenticatorBase
             throw new SafeguardForJavaException(String.format("Error retrieving the access token for certificate: %s", clientCertificate.getCertificatePath()));
         }
         
+        setRstsTokenExpiresIn(map.get("expires_in"));
         return map.get("access_token").toCharArray();
     }
 
+    @Override
+    protected String getTokenStoreKey() {
+        char[] certificatePassword = clientCertificate.getCertificatePassword();
+        if (certificatePassword == null || certificatePassword.length == 0)
+            return null;
+        String certificate;
+        if (clientCertificate.getCertificatePath() != null) {
+            certificate = Paths.get(clientCertificate.getCertificatePath()).toAbsolutePath().toString();
+        } else if (clientCertificate.getCertificateData() != null) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(clientCertificate.getCertificateData());
+                certificate = "data:" + Base64.getEncoder().encodeToString(digest);
+            } catch (NoSuchAlgorithmException ex) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        return String.format("Certificate|%s|%s|%s", getNetworkAddress().toLowerCase(Locale.ROOT), certificate,
+                clientCertificate.getCertificateAlias());
+    }
+
+    @Override
+    protected char[] getTokenStoreSecret() {
+        return clientCertificate.getCertificatePassword();
+    }
+
     @Override
     public Object cloneObject() throws SafeguardForJavaException {
         CertificateAuthenticator auth = new CertificateAuthenticator(this.getNetworkAddress(), clientCertificate, 
                 this.getApiVersion(), this.isIgnoreSsl(), this.getValidationCallback());
-        if (this.accessToken != null) {
-            auth.accessToken = this.accessToken.clone();
-        }
+        auth.copyAccessToken(this);
         return auth;
     }
     
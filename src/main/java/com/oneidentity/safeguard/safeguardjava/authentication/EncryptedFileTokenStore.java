@@ -0,0 +1,366 @@
+package com.oneidentity.safeguard.safeguardjava.authentication;
+
+import com.oneidentity.safeguard.safeguardjava.data.StoredAccessToken;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A token store that keeps each token in its own file, encrypted with AES-GCM under a key
+ * derived from the secret with PBKDF2. The file name is a digest of the key, and the key is
+ * authenticated with the token so a file cannot be swapped for another identity's. The number
+ * of PBKDF2 iterations is stored in each file, so files written before the iterations were
+ * changed can still be read.
+ * <p>
+ * Processes sharing the directory serialize logins through a lock file per key, so when many
+ * processes start at once only one of them logs in and the others reuse its token. On POSIX
+ * file systems the directory and files are only accessible by their owner.
+ */
+public class EncryptedFileTokenStore implements ITokenStore {
+
+    public static final int DEFAULT_ITERATIONS = 600000;
+
+    private static final byte VERSION = 2;
+    private static final int HEADER_LENGTH = 5;
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final int KEY_LENGTH = 256;
+
+    // FileChannel locks are held by the process, threads of the same process are serialized here.
+    // A lock is removed once no thread holds or waits for it.
+    private static final Map<Path, ThreadLock> threadLocks = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    // The key derived by the last load of each token, reused by a save with the same secret
+    private final Map<String, DerivedKey> derivedKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a store in the .safeguardjava/tokens directory of the user's home directory.
+     */
+    public EncryptedFileTokenStore() {
+        this(Paths.get(System.getProperty("user.home"), ".safeguardjava", "tokens").toString());
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param directory Directory holding the token files, created if it does not exist.
+     */
+    public EncryptedFileTokenStore(String directory) {
+        this(directory, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Creates a store.
+     *
+     * @param directory Directory holding the token files, created if it does not exist.
+     * @param iterations Number of PBKDF2 iterations used to derive the encryption key of new
+     *        token files. A login that replaces an expired token reuses the key derived to
+     *        read it, so the key is derived once per login.
+     */
+    public EncryptedFileTokenStore(String directory, int iterations) {
+        this.directory = Paths.get(directory).toAbsolutePath();
+        this.iterations = iterations;
+    }
+
+    public String getDirectory() {
+        return directory.toString();
+    }
+
+    @Override
+    public StoredAccessToken load(String key, char[] secret) throws SafeguardForJavaException {
+
+        Path file = getPath(key, ".token");
+        byte[] content;
+        try {
+            if (!Files.exists(file))
+                return null;
+            content = Files.readAllBytes(file);
+        } catch (IOException ex) {
+            throw new SafeguardForJavaException(String.format("Unable to read token file %s", file), ex);
+        }
+        // Files of other versions are ignored and replaced after the next login
+        if (content.length < HEADER_LENGTH + SALT_LENGTH + IV_LENGTH || content[0] != VERSION)
+            return null;
+        int storedIterations = ByteBuffer.wrap(content, 1, 4).getInt();
+        if (storedIterations <= 0)
+            return null;
+
+        byte[] plain = null;
+        try {
+            byte[] header = Arrays.copyOf(content, HEADER_LENGTH);
+            byte[] salt = Arrays.copyOfRange(content, HEADER_LENGTH, HEADER_LENGTH + SALT_LENGTH);
+            byte[] iv = Arrays.copyOfRange(content, HEADER_LENGTH + SALT_LENGTH, HEADER_LENGTH + SALT_LENGTH + IV_LENGTH);
+            byte[] keyBytes = deriveKey(secret, salt, storedIterations);
+            DerivedKey previous = derivedKeys.put(key, new DerivedKey(secret, storedIterations, salt, keyBytes));
+            if (previous != null)
+                previous.clear();
+            Cipher cipher = createCipher(Cipher.DECRYPT_MODE, key, keyBytes, header, iv);
+            plain = cipher.doFinal(content, HEADER_LENGTH + SALT_LENGTH + IV_LENGTH, content.length - HEADER_LENGTH - SALT_LENGTH - IV_LENGTH);
+
+            ByteBuffer buffer = ByteBuffer.wrap(plain);
+            long expiresAt = buffer.getLong();
+            CharBuffer chars = StandardCharsets.UTF_8.decode(buffer);
+            char[] token = Arrays.copyOf(chars.array(), chars.limit());
+            Arrays.fill(chars.array(), '0');
+            return new StoredAccessToken(token, expiresAt);
+        } catch (AEADBadTagException ex) {
+            // Stored with another secret, e.g. before a password change
+            return null;
+        } catch (GeneralSecurityException | RuntimeException ex) {
+            Logger.getLogger(EncryptedFileTokenStore.class.getName()).log(Level.FINEST, "Unable to decrypt token file", ex);
+            return null;
+        } finally {
+            if (plain != null)
+                Arrays.fill(plain, (byte) 0);
+        }
+    }
+
+    @Override
+    public void save(String key, char[] secret, StoredAccessToken token) throws SafeguardForJavaException {
+
+        ByteBuffer tokenBytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(token.getAccessToken()));
+        byte[] plain = new byte[8 + tokenBytes.remaining()];
+        ByteBuffer.wrap(plain).putLong(token.getExpiresAt()).put(tokenBytes);
+        Arrays.fill(tokenBytes.array(), (byte) 0);
+
+        byte[] content;
+        byte[] keyBytes = null;
+        DerivedKey derived = derivedKeys.remove(key);
+        try {
+            // A random IV keeps the ciphertext unique when the salt and key of the replaced file are reused
+            byte[] salt;
+            if (derived != null && derived.isFor(secret, iterations)) {
+                salt = derived.salt;
+                keyBytes = derived.key;
+            } else {
+                salt = new byte[SALT_LENGTH];
+                random.nextBytes(salt);
+                keyBytes = deriveKey(secret, salt, iterations);
+            }
+            byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            byte[] header = ByteBuffer.allocate(HEADER_LENGTH).put(VERSION).putInt(iterations).array();
+            byte[] encrypted = createCipher(Cipher.ENCRYPT_MODE, key, keyBytes, header, iv).doFinal(plain);
+
+            content = new byte[HEADER_LENGTH + SALT_LENGTH + IV_LENGTH + encrypted.length];
+            System.arraycopy(header, 0, content, 0, HEADER_LENGTH);
+            System.arraycopy(salt, 0, content, HEADER_LENGTH, SALT_LENGTH);
+            System.arraycopy(iv, 0, content, HEADER_LENGTH + SALT_LENGTH, IV_LENGTH);
+            System.arraycopy(encrypted, 0, content, HEADER_LENGTH + SALT_LENGTH + IV_LENGTH, encrypted.length);
+        } catch (GeneralSecurityException ex) {
+            throw new SafeguardForJavaException("Unable to encrypt access token", ex);
+        } finally {
+            Arrays.fill(plain, (byte) 0);
+            if (derived != null)
+                derived.clear();
+            if (keyBytes != null)
+                Arrays.fill(keyBytes, (byte) 0);
+        }
+
+        Path file = getPath(key, ".token");
+        Path temp = null;
+        try {
+            createDirectory();
+            // Temporary files are only accessible by their owner on POSIX file systems
+            temp = Files.createTempFile(directory, "token", ".tmp");
+            Files.write(temp, content);
+            try {
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            throw new SafeguardForJavaException(String.format("Unable to write token file %s", file), ex);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    @Override
+    public void remove(String key) throws SafeguardForJavaException {
+        Path file = getPath(key, ".token");
+        DerivedKey derived = derivedKeys.remove(key);
+        if (derived != null)
+            derived.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            throw new SafeguardForJavaException(String.format("Unable to delete token file %s", file), ex);
+        }
+    }
+
+    @Override
+    public Lock lock(String key) throws SafeguardForJavaException {
+
+        Path file = getPath(key, ".lock");
+        ReentrantLock threadLock = acquireThreadLock(file);
+        FileChannel channel = null;
+        try {
+            createDirectory();
+            createFile(file);
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock fileLock = channel.lock();
+            FileChannel lockedChannel = channel;
+            return () -> {
+                try {
+                    fileLock.release();
+                    lockedChannel.close();
+                } catch (IOException ex) {
+                    Logger.getLogger(EncryptedFileTokenStore.class.getName()).log(Level.FINEST, "Unable to release token lock", ex);
+                } finally {
+                    releaseThreadLock(file, threadLock);
+                }
+            };
+        } catch (IOException | RuntimeException ex) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException closeEx) {
+                }
+            }
+            releaseThreadLock(file, threadLock);
+            throw new SafeguardForJavaException(String.format("Unable to lock token file %s", file), ex);
+        }
+    }
+
+    private static ReentrantLock acquireThreadLock(Path file) {
+        ThreadLock threadLock = threadLocks.compute(file, (path, existing) -> {
+            ThreadLock lock = existing == null ? new ThreadLock() : existing;
+            lock.users++;
+            return lock;
+        });
+        threadLock.lock.lock();
+        return threadLock.lock;
+    }
+
+    private static void releaseThreadLock(Path file, ReentrantLock lock) {
+        lock.unlock();
+        threadLocks.computeIfPresent(file, (path, existing) -> --existing.users == 0 ? null : existing);
+    }
+
+    private static byte[] deriveKey(char[] secret, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(secret, salt, iterations, KEY_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static Cipher createCipher(int mode, String key, byte[] keyBytes, byte[] header, byte[] iv) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(mode, new SecretKeySpec(keyBytes, "AES"), new GCMParameterSpec(TAG_LENGTH, iv));
+        // Binds the ciphertext to its header and to the identity it was stored for
+        cipher.updateAAD(header);
+        cipher.updateAAD(key.getBytes(StandardCharsets.UTF_8));
+        return cipher;
+    }
+
+    private Path getPath(String key, String extension) throws SafeguardForJavaException {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return directory.resolve(name.append(extension).toString());
+        } catch (GeneralSecurityException ex) {
+            throw new SafeguardForJavaException("Unable to compute token file name", ex);
+        }
+    }
+
+    private void createDirectory() throws IOException {
+        if (Files.isDirectory(directory))
+            return;
+        if (isPosix())
+            Files.createDirectories(directory, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        else
+            Files.createDirectories(directory);
+    }
+
+    private static void createFile(Path file) throws IOException {
+        if (Files.exists(file))
+            return;
+        try {
+            if (isPosix())
+                Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            else
+                Files.createFile(file);
+        } catch (FileAlreadyExistsException ex) {
+            // Created by another process in the meantime
+        }
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    private static final class ThreadLock {
+
+        final ReentrantLock lock = new ReentrantLock();
+        // Threads holding or waiting for the lock, only changed while the map entry is computed
+        int users;
+    }
+
+    private static final class DerivedKey {
+
+        // Compared by identity, authenticators pass the same array to the load and save of a login
+        final WeakReference<char[]> secret;
+        final int iterations;
+        final byte[] salt;
+        final byte[] key;
+
+        DerivedKey(char[] secret, int iterations, byte[] salt, byte[] key) {
+            this.secret = new WeakReference<>(secret);
+            this.iterations = iterations;
+            this.salt = salt;
+            this.key = key;
+        }
+
+        boolean isFor(char[] secret, int iterations) {
+            return this.secret.get() == secret && this.iterations == iterations;
+        }
+
+        void clear() {
+            Arrays.fill(key, (byte) 0);
+        }
+    }
+}
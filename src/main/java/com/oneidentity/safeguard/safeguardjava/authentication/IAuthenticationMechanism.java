@@ -2,6 +2,7 @@ package com.oneidentity.safeguard.safeguardjava.authentication;
 
 import com.oneidentity.safeguard.safeguardjava.exceptions.ObjectDisposedException;
 import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+import java.util.function.BooleanSupplier;
 import javax.net.ssl.HostnameVerifier;
 
 
@@ -16,8 +17,24 @@ public interface IAuthenticationMechanism
     void clearAccessToken();
     char[] getAccessToken() throws ObjectDisposedException;
     int getAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException;
+    default int queryAccessTokenLifetimeRemaining() throws ObjectDisposedException, SafeguardForJavaException {
+        return getAccessTokenLifetimeRemaining();
+    }
+    default void updateAccessTokenLifetime(char[] sentAccessToken, int minutes) {
+    }
     HostnameVerifier getValidationCallback();
     void refreshAccessToken() throws ObjectDisposedException, SafeguardForJavaException;
+    default void refreshAccessToken(char[] expiredAccessToken) throws ObjectDisposedException, SafeguardForJavaException {
+        refreshAccessToken();
+    }
+    default void refreshAccessToken(char[] expiredAccessToken, BooleanSupplier cancelled) throws ObjectDisposedException, SafeguardForJavaException {
+        refreshAccessToken(expiredAccessToken);
+    }
+    default void removeStoredAccessToken() {
+    }
+    default boolean isAccessTokenStored() {
+        return false;
+    }
     Object cloneObject() throws SafeguardForJavaException;
     void dispose();
 }
@@ -0,0 +1,61 @@
+package com.oneidentity.safeguard.safeguardjava.authentication;
+
+import com.oneidentity.safeguard.safeguardjava.data.StoredAccessToken;
+import com.oneidentity.safeguard.safeguardjava.exceptions.SafeguardForJavaException;
+
+/**
+ * Keeps Safeguard API access tokens beyond the lifetime of the authenticator that obtained them,
+ * so that a new authenticator with the same credentials, possibly in another process, can reuse
+ * a token that is still valid instead of logging in again.
+ * <p>
+ * Tokens are identified by a key that names the appliance and the identity, and are protected
+ * with a secret known only to holders of the credentials, i.e. the password or the certificate
+ * password. A store must not return a token when a different secret is given.
+ */
+public interface ITokenStore {
+
+    /**
+     * Gets a stored token.
+     *
+     * @param key Identifies the appliance and the identity the token belongs to.
+     * @param secret Secret the token was stored with.
+     * @return The stored token, or null if there is none or it was stored with another secret.
+     * @throws SafeguardForJavaException The store could not be read.
+     */
+    StoredAccessToken load(String key, char[] secret) throws SafeguardForJavaException;
+
+    /**
+     * Stores a token, replacing any token stored with the same key.
+     *
+     * @param key Identifies the appliance and the identity the token belongs to.
+     * @param secret Secret protecting the token.
+     * @param token The token to store.
+     * @throws SafeguardForJavaException The store could not be written.
+     */
+    void save(String key, char[] secret, StoredAccessToken token) throws SafeguardForJavaException;
+
+    /**
+     * Removes a stored token, e.g. after it was logged out.
+     *
+     * @param key Identifies the appliance and the identity the token belongs to.
+     * @throws SafeguardForJavaException The store could not be written.
+     */
+    void remove(String key) throws SafeguardForJavaException;
+
+    /**
+     * Takes an exclusive lock on a key, held while a token is loaded and, if there is no valid
+     * one, a new token is obtained and saved. Other threads and processes using the store wait
+     * for the lock and then find the new token.
+     *
+     * @param key Identifies the appliance and the identity the token belongs to.
+     * @return The lock, released when it is closed.
+     * @throws SafeguardForJavaException The lock could not be taken.
+     */
+    Lock lock(String key) throws SafeguardForJavaException;
+
+    interface Lock extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,110 @@
+package com.oneidentity.safeguard.safeguardjava.authentication;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the identity providers known to the RSTS of each appliance. A password login has to map
+ * the provider name to an RSTS scope, which takes a round trip to the login controller. The list
+ * of providers rarely changes, so it is shared by every authenticator of the process and only
+ * fetched again once it is older than {@link #getTimeToLive()} seconds or when a provider name
+ * does not match any cached entry.
+ * <p>
+ * The cache can be seeded at startup with {@link #seed(String, List)} so that no login needs
+ * the round trip.
+ */
+public final class IdentityProviderCache {
+
+    public static final long DEFAULT_TIME_TO_LIVE = 600;
+
+    private static long timeToLive = DEFAULT_TIME_TO_LIVE;
+
+    private static final Map<String, Entry> entries = new HashMap<>();
+
+    private IdentityProviderCache() {
+    }
+
+    /**
+     * Gets the number of seconds a list of providers is used before it is fetched again.
+     *
+     * @return Time to live in seconds, zero means the cache is disabled.
+     */
+    public static synchronized long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets the number of seconds a list of providers is used before it is fetched again.
+     *
+     * @param seconds Time to live in seconds, zero disables the cache.
+     */
+    public static synchronized void setTimeToLive(long seconds) {
+        timeToLive = Math.max(0, seconds);
+    }
+
+    /**
+     * Adds the identity providers of an appliance to the cache, replacing any cached list.
+     *
+     * @param networkAddress Network address of the appliance.
+     * @param providerIds Ids of the identity providers, as returned by the RSTS login controller.
+     */
+    public static void seed(String networkAddress, List<String> providerIds) {
+        if (networkAddress == null || providerIds == null)
+            return;
+        put(networkAddress, providerIds);
+    }
+
+    /**
+     * Removes the cached identity providers of an appliance.
+     *
+     * @param networkAddress Network address of the appliance.
+     */
+    public static synchronized void invalidate(String networkAddress) {
+        if (networkAddress != null)
+            entries.remove(getKey(networkAddress));
+    }
+
+    /**
+     * Removes the cached identity providers of every appliance.
+     */
+    public static synchronized void clear() {
+        entries.clear();
+    }
+
+    static synchronized List<String> get(String networkAddress) {
+        String key = getKey(networkAddress);
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (System.nanoTime() - entry.created >= TimeUnit.SECONDS.toNanos(timeToLive)) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.providerIds;
+    }
+
+    static synchronized void put(String networkAddress, List<String> providerIds) {
+        if (timeToLive == 0)
+            return;
+        entries.put(getKey(networkAddress), new Entry(Collections.unmodifiableList(new ArrayList<>(providerIds))));
+    }
+
+    private static String getKey(String networkAddress) {
+        return networkAddress.toLowerCase(Locale.ROOT);
+    }
+
+    private static class Entry {
+
+        final List<String> providerIds;
+        final long created = System.nanoTime();
+
+        Entry(List<String> providerIds) {
+            this.providerIds = providerIds;
+        }
+    }
+}
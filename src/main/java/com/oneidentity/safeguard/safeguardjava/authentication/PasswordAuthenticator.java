@@ -14,11 +14,13 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.HostnameVerifier;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.util.EntityUtils;
 
 public class PasswordAuthenticator extends AuthenticatorBase 
 {
@@ -51,6 +53,25 @@ public class PasswordAuthenticator extends AuthenticatorBase
     }
 
     private void resolveProviderToScope() throws SafeguardForJavaException
+    {
+        List<String> knownScopes = IdentityProviderCache.get(getNetworkAddress());
+        boolean cached = knownScopes != null;
+        if (!cached)
+            knownScopes = getIdentityProviders();
+
+        String scope = getMatchingScope(knownScopes);
+        if (scope == null && cached) {
+            // The provider may have been added since the list was cached
+            knownScopes = getIdentityProviders();
+            scope = getMatchingScope(knownScopes);
+        }
+        if (scope == null)
+            throw new SafeguardForJavaException(String.format("Unable to find scope matching '%s' in [%s]", provider, String.join(",", knownScopes)));
+
+        providerScope = String.format("rsts:sts:primaryproviderid:%s", scope);
+    }
+
+    private List<String> getIdentityProviders() throws SafeguardForJavaException
     {
         try
         {
@@ -58,9 +79,6 @@ public class PasswordAuthenticator extends AuthenticatorBase
             Map<String,String> headers = new HashMap<>();
             Map<String,String> parameters = new HashMap<>();
             
-            headers.clear();
-            parameters.clear();
-
             headers.put("Content-type", "application/x-www-form-urlencoded");
             parameters.put("response_type", "token");
             parameters.put("redirect_uri", "urn:InstalledApplication");
@@ -68,8 +86,11 @@ public class PasswordAuthenticator extends AuthenticatorBase
 
             response = rstsClient.execPOST("UserLogin/LoginController", parameters, headers, new JsonBody("RelayState="));
                 
-            if (response == null || (!Utils.isSuccessful(response.getStatusLine().getStatusCode())))
+            if (response == null || (!Utils.isSuccessful(response.getStatusLine().getStatusCode()))) {
+                if (response != null)
+                    EntityUtils.consumeQuietly(response.getEntity());
                 response = rstsClient.execGET("UserLogin/LoginController", parameters, headers);
+            }
             
             if (response == null)
                 throw new SafeguardForJavaException("Unable to connect to RSTS to find identity provider scopes");
@@ -80,18 +101,8 @@ public class PasswordAuthenticator extends AuthenticatorBase
                         String.format("%d %s", response.getStatusLine().getStatusCode(), reply));
 
             List<String> knownScopes = parseLoginResponse(reply);
-            String scope = getMatchingScope(knownScopes, true);
-
-            if (scope != null)
-                providerScope = String.format("rsts:sts:primaryproviderid:%s", scope);
-            else
-            {
-                scope = getMatchingScope(knownScopes, false);
-                if (providerScope != null)
-                    providerScope = String.format("rsts:sts:primaryproviderid:%s", scope);
-                else
-                    throw new SafeguardForJavaException(String.format("Unable to find scope matching '%s' in [%s]", provider, String.join(",", knownScopes)));
-            }
+            IdentityProviderCache.put(getNetworkAddress(), knownScopes);
+            return knownScopes;
         }
         catch (SafeguardForJavaException ex) {
             throw ex;
@@ -126,16 +137,31 @@ public class PasswordAuthenticator extends AuthenticatorBase
         if (!map.containsKey("access_token"))
             throw new SafeguardForJavaException(String.format("Error retrieving the access key for scope: %s", providerScope));
         
+        setRstsTokenExpiresIn(map.get("expires_in"));
         return map.get("access_token").toCharArray();
     }
 
+    @Override
+    protected String getTokenStoreKey() {
+        if (password.length == 0)
+            return null;
+        String providerName = Utils.isNullOrEmpty(provider) ? "local" : provider.toLowerCase(Locale.ROOT);
+        return String.format("Password|%s|%s|%s", getNetworkAddress().toLowerCase(Locale.ROOT), providerName, username);
+    }
+
+    @Override
+    protected char[] getTokenStoreSecret() {
+        return password;
+    }
+
     @Override
     public Object cloneObject() throws SafeguardForJavaException
     {
         try {
             PasswordAuthenticator auth = new PasswordAuthenticator(getNetworkAddress(), provider, username, password, 
                     getApiVersion(), isIgnoreSsl(), getValidationCallback());
-            auth.accessToken = this.accessToken == null ? null : this.accessToken.clone();
+            auth.providerScope = this.providerScope;
+            auth.copyAccessToken(this);
             return auth;
         } catch (ArgumentException ex) {
             Logger.getLogger(PasswordAuthenticator.class.getName()).log(Level.SEVERE, null, ex);
@@ -184,8 +210,15 @@ public class PasswordAuthenticator extends AuthenticatorBase
         return providers;
     }
     
+    private String getMatchingScope(List<String> providers) {
+        String scope = getMatchingScope(providers, true);
+        return scope != null ? scope : getMatchingScope(providers, false);
+    }
+
     private String getMatchingScope(List<String> providers, boolean equals) {
         for (String s : providers) {
+            if (s == null)
+                continue;
             if (equals) {
                 if (s.equalsIgnoreCase(provider))
                     return s;
@@ -0,0 +1,61 @@
+package com.oneidentity.safeguard.safeguardjava.data;
+
+import java.util.Arrays;
+
+/**
+ * The outcome of retrieving the password of one API key, either the password or the error that
+ * prevented it.
+ */
+public class A2APasswordResult {
+
+    private final char[] apiKey;
+    private final char[] password;
+    private final Exception error;
+
+    public A2APasswordResult(char[] apiKey, char[] password) {
+        this.apiKey = apiKey;
+        this.password = password;
+        this.error = null;
+    }
+
+    public A2APasswordResult(char[] apiKey, Exception error) {
+        this.apiKey = apiKey;
+        this.password = null;
+        this.error = error;
+    }
+
+    public char[] getApiKey() {
+        return apiKey;
+    }
+
+    /**
+     * Gets the password of a successful retrieval.
+     *
+     * @return The password, or null if the retrieval failed.
+     */
+    public char[] getPassword() {
+        return password;
+    }
+
+    /**
+     * Gets the error of a failed retrieval. Errors returned by the Safeguard API are a
+     * SafeguardForJavaException with the HTTP status code and response.
+     *
+     * @return The error, or null if the retrieval succeeded.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * Overwrites the password so it does not linger in memory.
+     */
+    public void clear() {
+        if (password != null)
+            Arrays.fill(password, '0');
+    }
+}
@@ -1,6 +1,9 @@
 package com.oneidentity.safeguard.safeguardjava.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.oneidentity.safeguard.safeguardjava.Utils;
+import java.io.IOException;
+import java.io.OutputStream;
 
 public class AccessTokenBody implements JsonObject {
     
@@ -12,8 +15,18 @@ public class AccessTokenBody implements JsonObject {
 
     @Override
     public String toJson() {
-        return new StringBuffer("{")
-                .append(Utils.toJsonString("StsAccessToken", new String(this.stsAccessToken), false))
-                .append("}").toString();
+        return Utils.toJson(this);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator generator = Utils.createJsonGenerator(out)) {
+            generator.writeStartObject();
+            if (this.stsAccessToken != null) {
+                generator.writeFieldName("StsAccessToken");
+                generator.writeString(this.stsAccessToken, 0, this.stsAccessToken.length);
+            }
+            generator.writeEndObject();
+        }
     }
 }
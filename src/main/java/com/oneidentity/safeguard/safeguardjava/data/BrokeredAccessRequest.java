@@ -1,6 +1,9 @@
 package com.oneidentity.safeguard.safeguardjava.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.oneidentity.safeguard.safeguardjava.Utils;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.util.Date;
 
@@ -351,24 +354,43 @@ public class BrokeredAccessRequest implements JsonObject
     
     @Override
     public String toJson() {
-        return new StringBuffer("{")
-                .append(Utils.toJsonString("AccountId", this.AccountId, false))
-                .append(Utils.toJsonString("SystemId", this.AssetId, true))
-                .append(Utils.toJsonString("AccessRequestType", this.AccessType == null ? null : this.AccessType.name(), true))
-                .append(Utils.toJsonString("IsEmergency", this.IsEmergency, true))
-                .append(Utils.toJsonString("ReasonCodeId", this.ReasonCodeId, true))
-                .append(Utils.toJsonString("ReasonComment", this.ReasonComment, true))
-                .append(Utils.toJsonString("RequestedDurationDays", this.RequestedDurationDays, true))
-                .append(Utils.toJsonString("RequestedDurationHours", this.RequestedDurationHours, true))
-                .append(Utils.toJsonString("RequestedDurationMinutes", this.RequestedDurationMinutes, true))
-                .append(Utils.toJsonString("RequestedFor", this.RequestedFor == null ? null : this.RequestedFor.toString(), true))
-                .append(Utils.toJsonString("TicketNumber", this.TicketNumber, true))
-                .append(Utils.toJsonString("AccountName", this.AccountName, true))
-                .append(Utils.toJsonString("SystemName", this.AssetName, true))
-                .append(Utils.toJsonString("ForUserId", this.ForUserId, true))
-                .append(Utils.toJsonString("ForUser", this.ForUserName, true))
-                .append(Utils.toJsonString("ForProvider", this.ForUserIdentityProvider, true))
-                .append(Utils.toJsonString("ReasonCode", this.ReasonCode, true))
-                .append("}").toString();
+        return Utils.toJson(this);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator generator = Utils.createJsonGenerator(out)) {
+            generator.writeStartObject();
+            writeNumberField(generator, "AccountId", this.AccountId);
+            writeNumberField(generator, "SystemId", this.AssetId);
+            writeStringField(generator, "AccessRequestType", this.AccessType == null ? null : this.AccessType.name());
+            generator.writeBooleanField("IsEmergency", this.IsEmergency);
+            writeNumberField(generator, "ReasonCodeId", this.ReasonCodeId);
+            writeStringField(generator, "ReasonComment", this.ReasonComment);
+            writeNumberField(generator, "RequestedDurationDays", this.RequestedDurationDays);
+            writeNumberField(generator, "RequestedDurationHours", this.RequestedDurationHours);
+            writeNumberField(generator, "RequestedDurationMinutes", this.RequestedDurationMinutes);
+            writeStringField(generator, "RequestedFor", this.RequestedFor == null ? null : this.RequestedFor.toString());
+            writeStringField(generator, "TicketNumber", this.TicketNumber);
+            writeStringField(generator, "AccountName", this.AccountName);
+            writeStringField(generator, "SystemName", this.AssetName);
+            writeNumberField(generator, "ForUserId", this.ForUserId);
+            writeStringField(generator, "ForUser", this.ForUserName);
+            writeStringField(generator, "ForProvider", this.ForUserIdentityProvider);
+            writeStringField(generator, "ReasonCode", this.ReasonCode);
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeStringField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null)
+            generator.writeStringField(name, value);
+    }
+
+    private static void writeNumberField(JsonGenerator generator, String name, Number value) throws IOException {
+        if (value != null) {
+            generator.writeFieldName(name);
+            generator.writeNumber(value.longValue());
+        }
     }
 }
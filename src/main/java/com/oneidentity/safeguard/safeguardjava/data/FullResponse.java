@@ -13,11 +13,17 @@ public class FullResponse {
     private int statusCode;
     private Header[] headers;
     private String body;
+    private int retryCount;
 
     public FullResponse(int statusCode, Header[] headers, String body) {
+        this(statusCode, headers, body, 0);
+    }
+
+    public FullResponse(int statusCode, Header[] headers, String body, int retryCount) {
         this.statusCode = statusCode;
         this.headers = headers;
         this.body = body;
+        this.retryCount = retryCount;
     }
 
     public int getStatusCode() {
@@ -43,5 +49,18 @@ public class FullResponse {
     public void setBody(String body) {
         this.body = body;
     }
+
+    /**
+     * Gets the number of times the request was retried before this response was received.
+     * 
+     * @return Number of retries.
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
     
 }
@@ -1,5 +1,11 @@
 package com.oneidentity.safeguard.safeguardjava.data;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
 public class JsonBody implements JsonObject {
     
     private String body;
@@ -11,4 +17,14 @@ public class JsonBody implements JsonObject {
     public String toJson() {
         return body;
     }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (body == null)
+            return;
+        // The writer encodes through a small buffer, a large body is never copied as a whole
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        writer.write(body);
+        writer.flush();
+    }
 }
@@ -1,6 +1,24 @@
 package com.oneidentity.safeguard.safeguardjava.data;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
 public interface JsonObject {
 
     String toJson();
+
+    /**
+     * Writes the UTF-8 encoded JSON of this object to a stream. Request bodies are written this
+     * way, directly to the connection, so no intermediate String is created. The stream must
+     * not be closed. The default implementation writes the result of {@link #toJson()}.
+     * 
+     * @param out Stream to write to.
+     * @throws IOException Error writing to the stream.
+     */
+    default void writeTo(OutputStream out) throws IOException {
+        String json = toJson();
+        if (json != null)
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+    }
 }
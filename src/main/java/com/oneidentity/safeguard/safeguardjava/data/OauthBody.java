@@ -1,6 +1,9 @@
 package com.oneidentity.safeguard.safeguardjava.data;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.oneidentity.safeguard.safeguardjava.Utils;
+import java.io.IOException;
+import java.io.OutputStream;
 
 public class OauthBody implements JsonObject {
     
@@ -61,19 +64,29 @@ public class OauthBody implements JsonObject {
     
     @Override
     public String toJson() {
-        if (isPassword) {
-            return new StringBuffer("{")
-                    .append(Utils.toJsonString("grant_type", this.grantType, false))
-                    .append(Utils.toJsonString("username", this.username, true))
-                    .append(Utils.toJsonString("password", new String(this.password), true))
-                    .append(Utils.toJsonString("scope", this.scope, true))
-                    .append("}").toString();
-        }
-        else {
-            return new StringBuffer("{")
-                    .append(Utils.toJsonString("grant_type", this.grantType, false))
-                    .append(Utils.toJsonString("scope", this.scope, true))
-                    .append("}").toString();
+        return Utils.toJson(this);
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (JsonGenerator generator = Utils.createJsonGenerator(out)) {
+            generator.writeStartObject();
+            writeStringField(generator, "grant_type", this.grantType);
+            if (isPassword) {
+                writeStringField(generator, "username", this.username);
+                if (this.password != null) {
+                    // Written straight from the char array so the password never becomes a String
+                    generator.writeFieldName("password");
+                    generator.writeString(this.password, 0, this.password.length);
+                }
+            }
+            writeStringField(generator, "scope", this.scope);
+            generator.writeEndObject();
         }
-    }   
+    }
+
+    private static void writeStringField(JsonGenerator generator, String name, String value) throws IOException {
+        if (value != null)
+            generator.writeStringField(name, value);
+    }
 }
@@ -0,0 +1,50 @@
+package com.oneidentity.safeguard.safeguardjava.data;
+
+/**
+ * The outcome of one request of a batch, either the response or the error that prevented it.
+ */
+public class SafeguardBatchResult {
+
+    private final SafeguardRequest request;
+    private final FullResponse response;
+    private final Exception error;
+
+    public SafeguardBatchResult(SafeguardRequest request, FullResponse response) {
+        this.request = request;
+        this.response = response;
+        this.error = null;
+    }
+
+    public SafeguardBatchResult(SafeguardRequest request, Exception error) {
+        this.request = request;
+        this.response = null;
+        this.error = error;
+    }
+
+    public SafeguardRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Gets the response of a successful request.
+     *
+     * @return The response, or null if the request failed.
+     */
+    public FullResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * Gets the error of a failed request. Errors returned by the Safeguard API are a
+     * SafeguardForJavaException with the HTTP status code and response.
+     *
+     * @return The error, or null if the request succeeded.
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+}
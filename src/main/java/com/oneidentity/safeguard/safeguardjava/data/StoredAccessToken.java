@@ -0,0 +1,39 @@
+package com.oneidentity.safeguard.safeguardjava.data;
+
+import java.util.Arrays;
+
+/**
+ * A Safeguard API access token kept in a token store, with the time it expires.
+ */
+public class StoredAccessToken {
+
+    private final char[] accessToken;
+    private final long expiresAt;
+
+    /**
+     * Creates a stored access token.
+     *
+     * @param accessToken The Safeguard API access token.
+     * @param expiresAt Expiry of the token in milliseconds since the epoch.
+     */
+    public StoredAccessToken(char[] accessToken, long expiresAt) {
+        this.accessToken = accessToken;
+        this.expiresAt = expiresAt;
+    }
+
+    public char[] getAccessToken() {
+        return accessToken;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    /**
+     * Overwrites the token so it does not linger in memory.
+     */
+    public void clear() {
+        if (accessToken != null)
+            Arrays.fill(accessToken, '0');
+    }
+}
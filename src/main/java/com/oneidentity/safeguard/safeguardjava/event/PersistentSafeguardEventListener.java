@@ -26,9 +26,9 @@ public class PersistentSafeguardEventListener extends PersistentSafeguardEventLi
             throw new ObjectDisposedException("SafeguardEventListener");
         }
         
-        if (connection.getAccessTokenLifetimeRemaining() == 0) {
-            connection.refreshAccessToken();
-        }
+        // Reconnecting follows a failure, which may be a token revoked on the appliance that
+        // still looks valid locally
+        connection.refreshExpiredAccessToken(true);
         return connection.getEventListener();
     }
 
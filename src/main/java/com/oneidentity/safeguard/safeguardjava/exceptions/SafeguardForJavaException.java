@@ -2,14 +2,45 @@ package com.oneidentity.safeguard.safeguardjava.exceptions;
 
 public class SafeguardForJavaException extends Exception {
 
+    private int httpStatusCode;
+    private String response;
+
     public SafeguardForJavaException(String msg) {
         super(msg);
     }
+
+    public SafeguardForJavaException(String msg, int httpStatusCode, String response) {
+        super(msg);
+        this.httpStatusCode = httpStatusCode;
+        this.response = response;
+    }
     
     public SafeguardForJavaException(String msg, Exception cause) {
         super(msg, cause);
     }
 
+    /**
+     * Gets the HTTP status code returned by the Safeguard API.
+     * 
+     * @return The status code, or zero if the error was not returned by the API.
+     */
+    public int getHttpStatusCode() {
+        return httpStatusCode;
+    }
+
+    /**
+     * Gets the response body returned by the Safeguard API.
+     * 
+     * @return The response body, or null if the error was not returned by the API.
+     */
+    public String getResponse() {
+        return response;
+    }
+
+    public boolean hasResponse() {
+        return response != null;
+    }
+
     @Override
     public String getLocalizedMessage() {
         return getMessage();
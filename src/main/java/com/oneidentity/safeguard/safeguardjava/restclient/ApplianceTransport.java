@@ -0,0 +1,419 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import com.oneidentity.safeguard.safeguardjava.data.CertificateContext;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+
+/**
+ * The HTTP clients, connection pools and TLS contexts used to talk to a single appliance.
+ * Transports are shared process-wide by every RestClient with the same appliance address and
+ * TLS settings, so the core, appliance, notification and RSTS clients of every connection,
+ * authenticator and clone reuse the same pooled connections. Transports are reference counted
+ * and closed when the last RestClient using them is disposed or garbage collected.
+ * <p>
+ * The connection limits belong to the transport, they are set by the first client of an
+ * appliance and changing them affects every client of the appliance in the process.
+ */
+class ApplianceTransport {
+
+    private static final Map<TransportKey, ApplianceTransport> registry = new HashMap<>();
+    // Leases of clients that were garbage collected without being disposed are enqueued here
+    private static final ReferenceQueue<Object> abandonedClients = new ReferenceQueue<>();
+    private static final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+
+    static {
+        Thread reaper = new Thread(ApplianceTransport::releaseAbandonedLeases, "SafeguardTransportReaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
+
+    private final TransportKey key;
+    private final String serverUrl;
+    private final boolean trustAll;
+    private final boolean ignoreSsl;
+    private final HostnameVerifier validationCallback;
+    private int references;
+
+    private final CloseableHttpClient client;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    // Clients with a client certificate are kept per certificate and replaced when its keystore changes
+    private final Map<String, CertificateClient<CloseableHttpClient>> certClients = new ConcurrentHashMap<>();
+    private CloseableHttpAsyncClient asyncClient = null;
+    private final Map<String, CertificateClient<CloseableHttpAsyncClient>> certAsyncClients = new ConcurrentHashMap<>();
+    private IHttp2Transport http2Transport = null;
+    private boolean http2Unavailable;
+    private final Map<String, CertificateClient<IHttp2Transport>> certTransports = new ConcurrentHashMap<>();
+
+    /**
+     * Acquires the transport of an appliance for a client. The lease must be released when the
+     * client is disposed, a lease whose client is garbage collected without being disposed is
+     * released by a background thread so the transport does not outlive its clients.
+     *
+     * @param client The client using the transport.
+     * @param serverUrl Base URL of the appliance service.
+     * @param ignoreSsl Ignore server certificate validation.
+     * @param validationCallback Callback function to be executed during SSL verification.
+     * @param maxConnectionsTotal Maximum number of pooled connections, or zero to use the current limit.
+     * @param maxConnectionsPerRoute Maximum number of pooled connections per route, or zero to use the current limit.
+     * @return The lease on the transport.
+     * @throws IllegalArgumentException The transport already exists with other connection limits.
+     */
+    static Lease acquire(Object client, String serverUrl, boolean ignoreSsl, HostnameVerifier validationCallback,
+            int maxConnectionsTotal, int maxConnectionsPerRoute) {
+
+        TransportKey key = new TransportKey(TlsContextProvider.getAuthority(serverUrl), ignoreSsl, ignoreSsl ? null : validationCallback);
+        synchronized (registry) {
+            ApplianceTransport transport = registry.get(key);
+            if (transport == null) {
+                transport = new ApplianceTransport(key, serverUrl,
+                        maxConnectionsTotal > 0 ? maxConnectionsTotal : RestClient.DEFAULT_MAX_CONNECTIONS_TOTAL,
+                        maxConnectionsPerRoute > 0 ? maxConnectionsPerRoute : RestClient.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+                registry.put(key, transport);
+                Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINEST, "Created shared transport for {0}", key.authority);
+            } else if ((maxConnectionsTotal > 0 && maxConnectionsTotal != transport.getMaxConnectionsTotal())
+                    || (maxConnectionsPerRoute > 0 && maxConnectionsPerRoute != transport.getMaxConnectionsPerRoute())) {
+                throw new IllegalArgumentException(String.format(
+                        "The connection pool of %s is shared and already limited to %d connections, %d per route",
+                        key.authority, transport.getMaxConnectionsTotal(), transport.getMaxConnectionsPerRoute()));
+            }
+            transport.references++;
+            return new Lease(client, transport);
+        }
+    }
+
+    private void release() {
+        synchronized (registry) {
+            if (--references > 0)
+                return;
+            registry.remove(key);
+        }
+        close();
+        Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINEST, "Closed shared transport for {0}", key.authority);
+    }
+
+    private static void releaseAbandonedLeases() {
+        while (true) {
+            try {
+                Lease lease = (Lease) abandonedClients.remove();
+                Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINE, 
+                        "Releasing the transport of a client of {0} that was not disposed", lease.transport.key.authority);
+                lease.release();
+            } catch (InterruptedException ex) {
+                return;
+            } catch (RuntimeException ex) {
+                Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINEST, "Error releasing abandoned transport", ex);
+            }
+        }
+    }
+
+    private ApplianceTransport(TransportKey key, String serverUrl, int maxConnectionsTotal, int maxConnectionsPerRoute) {
+
+        this.key = key;
+        this.serverUrl = serverUrl;
+        this.trustAll = key.ignoreSsl || key.validationCallback != null;
+        this.ignoreSsl = key.ignoreSsl;
+        this.validationCallback = key.validationCallback;
+
+        SSLConnectionSocketFactory sslsf = null; 
+        if (ignoreSsl) {
+            sslsf = new SSLConnectionSocketFactory(getSSLContext(), NoopHostnameVerifier.INSTANCE);
+        } else if (validationCallback != null) {
+            sslsf = new SSLConnectionSocketFactory(getSSLContext(), validationCallback); 
+        } else {
+            sslsf = new SSLConnectionSocketFactory(getSSLContext());
+        }
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create().register("https", sslsf).build();
+        // The pooling manager is thread safe, so a single transport can service concurrent requests
+        connectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        client = HttpClients.custom().setSSLSocketFactory(sslsf).setConnectionManager(connectionManager).build();
+    }
+
+    CloseableHttpClient getClient() {
+        return client;
+    }
+
+    int getMaxConnectionsTotal() {
+        return connectionManager.getMaxTotal();
+    }
+
+    int getMaxConnectionsPerRoute() {
+        return connectionManager.getDefaultMaxPerRoute();
+    }
+
+    void setConnectionLimits(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    }
+
+    synchronized IHttp2Transport getHttp2Transport() {
+        if (http2Transport == null && !http2Unavailable) {
+            if (!Http2TransportFactory.isSupported() || validationCallback != null) {
+                http2Unavailable = true;
+            } else {
+                http2Transport = Http2TransportFactory.create(getSSLContext());
+            }
+        }
+        return http2Transport;
+    }
+
+    synchronized CloseableHttpAsyncClient getAsyncClient() {
+
+        // The NIO client owns its own I/O reactor threads so it is only started on first use
+        if (asyncClient == null) {
+            HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                    .setSSLContext(getSSLContext())
+                    .setMaxConnTotal(connectionManager.getMaxTotal())
+                    .setMaxConnPerRoute(connectionManager.getDefaultMaxPerRoute());
+            if (ignoreSsl) {
+                builder.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
+            } else if (validationCallback != null) {
+                builder.setSSLHostnameVerifier(validationCallback);
+            }
+            asyncClient = builder.build();
+            asyncClient.start();
+        }
+        return asyncClient;
+    }
+
+    CloseableHttpAsyncClient getAsyncClientWithCertificate(CertificateContext certificateContext) {
+        return getCertificateClient(certAsyncClients, certificateContext, this::createAsyncClientWithCertificate, this::closeAsyncClient);
+    }
+
+    CloseableHttpClient getClientWithCertificate(CertificateContext certificateContext) {
+        return getCertificateClient(certClients, certificateContext, this::createClientWithCertificate, this::closeClient);
+    }
+
+    IHttp2Transport getHttp2TransportWithCertificate(CertificateContext certificateContext) {
+
+        if (getHttp2Transport() == null)
+            return null;
+        return getCertificateClient(certTransports, certificateContext, this::createHttp2TransportWithCertificate, IHttp2Transport::close);
+    }
+
+    /**
+     * Gets the client of a client certificate, creating it on first use. When the keystore file
+     * of the certificate has changed since the client was created, a client with the new
+     * certificate replaces it and the old client is closed.
+     */
+    private <T> T getCertificateClient(Map<String, CertificateClient<T>> clients, CertificateContext certificateContext,
+            Function<CertificateContext, T> factory, Consumer<T> closer) {
+
+        String certificateKey = TlsContextProvider.getCertificateKey(certificateContext);
+        if (certificateKey == null)
+            return null;
+        String version = TlsContextProvider.getCertificateVersion(certificateContext);
+
+        while (true) {
+            CertificateClient<T> current = clients.get(certificateKey);
+            if (current != null && current.version.equals(version))
+                return current.client;
+
+            T client = factory.apply(certificateContext);
+            if (client == null)
+                return null;
+            CertificateClient<T> created = new CertificateClient<>(version, client);
+            boolean added = current == null ? clients.putIfAbsent(certificateKey, created) == null
+                    : clients.replace(certificateKey, current, created);
+            if (!added) {
+                // Another thread got there first, use its client
+                closer.accept(client);
+                continue;
+            }
+            if (current != null) {
+                Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINEST,
+                        "Client certificate keystore changed, replacing the client for {0}", key.authority);
+                closer.accept(current.client);
+            }
+            return client;
+        }
+    }
+
+    private CloseableHttpAsyncClient createAsyncClientWithCertificate(CertificateContext certificateContext) {
+
+        SSLContext sslContext = TlsContextProvider.getContext(serverUrl, trustAll, certificateContext);
+        if (sslContext == null)
+            return null;
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setSSLContext(sslContext)
+                .setMaxConnTotal(connectionManager.getMaxTotal())
+                .setMaxConnPerRoute(connectionManager.getDefaultMaxPerRoute())
+                .disableConnectionState();
+        if (ignoreSsl) {
+            builder.setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE);
+        } else if (validationCallback != null) {
+            builder.setSSLHostnameVerifier(validationCallback);
+        }
+        CloseableHttpAsyncClient certAsyncClient = builder.build();
+        certAsyncClient.start();
+        return certAsyncClient;
+    }
+
+    private IHttp2Transport createHttp2TransportWithCertificate(CertificateContext certificateContext) {
+
+        SSLContext sslContext = TlsContextProvider.getContext(serverUrl, trustAll, certificateContext);
+        if (sslContext == null)
+            return null;
+        return Http2TransportFactory.create(sslContext);
+    }
+
+    private CloseableHttpClient createClientWithCertificate(CertificateContext certificateContext) {
+
+        SSLContext sslContext = TlsContextProvider.getContext(serverUrl, trustAll, certificateContext);
+        if (sslContext == null)
+            return null;
+
+        SSLConnectionSocketFactory sslsf = null; 
+        if (ignoreSsl) {
+            sslsf = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
+        } else if (validationCallback != null) {
+            sslsf = new SSLConnectionSocketFactory(sslContext, validationCallback); 
+        } else {
+            sslsf = new SSLConnectionSocketFactory(sslContext);
+        }
+        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create().register("https", sslsf).build();
+        PoolingHttpClientConnectionManager certConnectionManager = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+        certConnectionManager.setMaxTotal(connectionManager.getMaxTotal());
+        certConnectionManager.setDefaultMaxPerRoute(connectionManager.getDefaultMaxPerRoute());
+        // Every connection in this pool is bound to the same client certificate, so connection state
+        // tracking is disabled to allow the authenticated connections to be kept alive and reused.
+        return HttpClients.custom().setSSLSocketFactory(sslsf).setConnectionManager(certConnectionManager)
+                .disableConnectionState().build();
+    }
+
+    private SSLContext getSSLContext() {
+        // The context is shared with the SignalR clients of the appliance so TLS sessions are resumed
+        return TlsContextProvider.getContext(serverUrl, trustAll);
+    }
+
+    private void closeClient(CloseableHttpClient httpClient) {
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINEST, "Error closing HTTP client", ex);
+        }
+    }
+
+    private void closeAsyncClient(CloseableHttpAsyncClient httpClient) {
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            Logger.getLogger(ApplianceTransport.class.getName()).log(Level.FINEST, "Error closing async HTTP client", ex);
+        }
+    }
+
+    private void close() {
+        for (CertificateClient<CloseableHttpClient> certClient : certClients.values()) {
+            closeClient(certClient.client);
+        }
+        certClients.clear();
+        closeClient(client);
+        synchronized (this) {
+            if (http2Transport != null)
+                http2Transport.close();
+            http2Transport = null;
+            for (CertificateClient<IHttp2Transport> certTransport : certTransports.values()) {
+                certTransport.client.close();
+            }
+            certTransports.clear();
+            if (asyncClient != null)
+                closeAsyncClient(asyncClient);
+            asyncClient = null;
+            for (CertificateClient<CloseableHttpAsyncClient> certAsyncClient : certAsyncClients.values()) {
+                closeAsyncClient(certAsyncClient.client);
+            }
+            certAsyncClients.clear();
+        }
+    }
+
+    /**
+     * A client's reference on a transport. The lease only refers to its client through a
+     * phantom reference, so an abandoned client can still be collected.
+     */
+    static final class Lease extends PhantomReference<Object> {
+
+        private final ApplianceTransport transport;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Object client, ApplianceTransport transport) {
+            super(client, abandonedClients);
+            this.transport = transport;
+            leases.add(this);
+        }
+
+        ApplianceTransport getTransport() {
+            return transport;
+        }
+
+        void release() {
+            if (!released.compareAndSet(false, true))
+                return;
+            leases.remove(this);
+            clear();
+            transport.release();
+        }
+    }
+
+    private static final class CertificateClient<T> {
+
+        final String version;
+        final T client;
+
+        CertificateClient(String version, T client) {
+            this.version = version;
+            this.client = client;
+        }
+    }
+
+    private static class TransportKey {
+
+        final String authority;
+        final boolean ignoreSsl;
+        final HostnameVerifier validationCallback;
+
+        TransportKey(String authority, boolean ignoreSsl, HostnameVerifier validationCallback) {
+            this.authority = authority;
+            this.ignoreSsl = ignoreSsl;
+            this.validationCallback = validationCallback;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TransportKey))
+                return false;
+            TransportKey other = (TransportKey) obj;
+            // Validation callbacks are compared by identity, a different callback gets its own transport
+            return authority.equals(other.authority) && ignoreSsl == other.ignoreSsl && validationCallback == other.validationCallback;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(authority, ignoreSsl, System.identityHashCode(validationCallback));
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import java.io.IOException;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * Adapts a response received by an IHttp2Transport to the Apache response type returned by
+ * RestClient so that callers do not need to know which transport was used.
+ */
+public class Http2Response extends BasicHttpResponse implements CloseableHttpResponse {
+
+    public static final ProtocolVersion HTTP_2 = new ProtocolVersion("HTTP", 2, 0);
+
+    public Http2Response(ProtocolVersion version, int statusCode) {
+        super(version, statusCode, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (getEntity() != null)
+            getEntity().getContent().close();
+    }
+}
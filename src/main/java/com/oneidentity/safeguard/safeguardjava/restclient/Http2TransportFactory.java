@@ -0,0 +1,23 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Creates HTTP/2 transports. The HTTP/2 transport requires the java.net.http client which
+ * is only available on Java 11 and later. This version of the class is used on Java 8 where
+ * no transport is available, so RestClient stays on HTTP/1.1. A Java 11 version of this class
+ * is packaged under META-INF/versions/11 of the multi-release jar.
+ */
+public final class Http2TransportFactory {
+
+    private Http2TransportFactory() {
+    }
+
+    public static boolean isSupported() {
+        return false;
+    }
+
+    public static IHttp2Transport create(SSLContext sslContext) {
+        return null;
+    }
+}
@@ -0,0 +1,21 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * An HTTP/2 capable transport that RestClient can use in place of the Apache HTTP/1.1
+ * client. Requests are multiplexed over a single TLS connection per appliance. If the
+ * appliance does not negotiate HTTP/2 the transport falls back to HTTP/1.1.
+ */
+public interface IHttp2Transport {
+
+    CloseableHttpResponse execute(HttpUriRequest request) throws IOException;
+
+    CompletableFuture<HttpResponse> executeAsync(HttpUriRequest request);
+
+    void close();
+}
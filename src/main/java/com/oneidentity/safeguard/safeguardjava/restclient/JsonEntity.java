@@ -0,0 +1,73 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import com.oneidentity.safeguard.safeguardjava.data.JsonObject;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.http.entity.AbstractHttpEntity;
+
+/**
+ * Request entity that serializes a JsonObject directly to the connection as UTF-8. The content
+ * length is found by serializing once to a counting stream, so neither the JSON String nor its
+ * bytes are held in memory while the request is sent.
+ */
+class JsonEntity extends AbstractHttpEntity {
+
+    private final JsonObject jsonObject;
+    private final long contentLength;
+
+    JsonEntity(JsonObject jsonObject) throws IOException {
+        this.jsonObject = jsonObject;
+        CountingOutputStream counter = new CountingOutputStream();
+        jsonObject.writeTo(counter);
+        this.contentLength = counter.count;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        // Only used by clients that read rather than write the entity, e.g. the async client
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(contentLength, Integer.MAX_VALUE));
+        jsonObject.writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        if (out == null)
+            throw new IllegalArgumentException("Output stream may not be null");
+        jsonObject.writeTo(out);
+        out.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -2,61 +2,75 @@ package com.oneidentity.safeguard.safeguardjava.restclient;
 
 import com.oneidentity.safeguard.safeguardjava.data.CertificateContext;
 import com.oneidentity.safeguard.safeguardjava.data.JsonObject;
-import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.Principal;
-import java.security.PrivateKey;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509ExtendedKeyManager;
-import javax.net.ssl.X509KeyManager;
-import javax.net.ssl.X509TrustManager;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.RequestBuilder;
-import org.apache.http.config.Registry;
-import org.apache.http.config.RegistryBuilder;
-import org.apache.http.conn.socket.ConnectionSocketFactory;
-import org.apache.http.conn.ssl.NoopHostnameVerifier;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.protocol.ResponseContentEncoding;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.BasicHttpClientConnectionManager;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 
 public class RestClient {
 
-    private CloseableHttpClient client = null;
+    public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 100;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 50;
+    public static final String ACCEPT_ENCODING = "gzip,deflate";
+
+    private final ApplianceTransport.Lease lease;
+    private final ApplianceTransport transport;
+    private volatile boolean http2Enabled = false;
+    private volatile int requestCompressionThreshold = 0;
+    private volatile boolean disposed = false;
     private String serverUrl = null;
-    private boolean ignoreSsl = false;
-    private HostnameVerifier validationCallback = null;
 
     Logger logger = Logger.getLogger(getClass().getName());
 
+    /**
+     * Creates a client for an appliance URL. Every client for the same appliance address and TLS
+     * settings shares one process-wide transport and connection pool. The pool of a new appliance
+     * is limited to DEFAULT_MAX_CONNECTIONS_TOTAL connections, DEFAULT_MAX_CONNECTIONS_PER_ROUTE
+     * per route, otherwise the current limits of the shared pool apply.
+     * 
+     * @param connectionAddr Base URL of the appliance service.
+     * @param ignoreSsl Ignore server certificate validation.
+     * @param validationCallback Callback function to be executed during SSL verification.
+     */
     public RestClient(String connectionAddr, boolean ignoreSsl, HostnameVerifier validationCallback) {
+        this(connectionAddr, ignoreSsl, validationCallback, 0, 0);
+    }
+
+    /**
+     * Creates a client for an appliance URL with explicit connection limits. Every client for the
+     * same appliance address and TLS settings shares one process-wide transport and connection pool,
+     * so the limits must match those of the pool if other clients of the appliance exist.
+     * 
+     * @param connectionAddr Base URL of the appliance service.
+     * @param ignoreSsl Ignore server certificate validation.
+     * @param validationCallback Callback function to be executed during SSL verification.
+     * @param maxConnectionsTotal Maximum number of pooled connections to the appliance.
+     * @param maxConnectionsPerRoute Maximum number of pooled connections per route.
+     * @throws IllegalArgumentException The shared connection pool of the appliance has other limits.
+     */
+    public RestClient(String connectionAddr, boolean ignoreSsl, HostnameVerifier validationCallback,
+            int maxConnectionsTotal, int maxConnectionsPerRoute) {
 
         if (false) {
             Handler handlerObj = new ConsoleHandler();
@@ -66,23 +80,63 @@ public class RestClient {
             logger.setUseParentHandlers(false);
         }
 
-        this.ignoreSsl = ignoreSsl;
         this.serverUrl = connectionAddr;
+        this.lease = ApplianceTransport.acquire(this, connectionAddr, ignoreSsl, validationCallback, 
+                maxConnectionsTotal, maxConnectionsPerRoute);
+        this.transport = lease.getTransport();
+    }
+
+    public int getMaxConnectionsTotal() {
+        return transport.getMaxConnectionsTotal();
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return transport.getMaxConnectionsPerRoute();
+    }
 
-        SSLConnectionSocketFactory sslsf = null; 
-        if (ignoreSsl) {
-            this.validationCallback = null;
-            sslsf = new SSLConnectionSocketFactory(getSSLContext(null, null, null), NoopHostnameVerifier.INSTANCE);
-        } else if (validationCallback != null) {
-            this.validationCallback = validationCallback;
-            sslsf = new SSLConnectionSocketFactory(getSSLContext(null, null, null), validationCallback); 
-        } else {
-            sslsf = new SSLConnectionSocketFactory(getSSLContext(null, null, null));
+    /**
+     * Sets the connection limits of the pool shared by all clients of this appliance. This changes
+     * the limits for every client of the appliance in the process, not only for this client.
+     * 
+     * @param maxConnectionsTotal Maximum number of pooled connections to the appliance.
+     * @param maxConnectionsPerRoute Maximum number of pooled connections per route.
+     */
+    public void setConnectionLimits(int maxConnectionsTotal, int maxConnectionsPerRoute) {
+        transport.setConnectionLimits(maxConnectionsTotal, maxConnectionsPerRoute);
+    }
+
+    /**
+     * Enables or disables the HTTP/2 transport. HTTP/2 requires Java 11 or later, and is not
+     * used when a HostnameVerifier validation callback is set because the HTTP/2 client cannot
+     * apply it. In either case the client stays on HTTP/1.1. The transport itself falls back to
+     * HTTP/1.1 when the appliance does not negotiate HTTP/2.
+     * 
+     * @param enabled Whether to use the HTTP/2 transport.
+     */
+    public synchronized void setHttp2Enabled(boolean enabled) {
+        if (enabled && transport.getHttp2Transport() == null) {
+            Logger.getLogger(RestClient.class.getName()).log(Level.FINE, "HTTP/2 transport unavailable, using HTTP/1.1 for {0}", serverUrl);
+            return;
         }
-        Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create().register("https", sslsf).build();
-        BasicHttpClientConnectionManager connectionManager = new BasicHttpClientConnectionManager(socketFactoryRegistry);
-        client = HttpClients.custom().setSSLSocketFactory(sslsf).setConnectionManager(connectionManager).build();
-    
+        http2Enabled = enabled;
+    }
+
+    public boolean isHttp2Enabled() {
+        return http2Enabled;
+    }
+
+    public int getRequestCompressionThreshold() {
+        return requestCompressionThreshold;
+    }
+
+    /**
+     * Sets the size in bytes at which PUT and POST request bodies are sent gzip compressed.
+     * A value of zero or less disables request compression, which is the default.
+     * 
+     * @param requestCompressionThreshold Minimum body size to compress.
+     */
+    public void setRequestCompressionThreshold(int requestCompressionThreshold) {
+        this.requestCompressionThreshold = requestCompressionThreshold;
     }
 
     private URI getBaseURI(String segments) {
@@ -103,9 +157,10 @@ public class RestClient {
         RequestBuilder rb = prepareRequest (RequestBuilder.get(getBaseURI(path)), queryParams, headers);
 
         try {
-            CloseableHttpResponse r = client.execute(rb.build());
+            CloseableHttpResponse r = execute(rb.build());
             return r;
         } catch (Exception ex) {
+            Logger.getLogger(RestClient.class.getName()).log(Level.FINEST, "Request to " + serverUrl + " failed", ex);
             return null;
         }
     }
@@ -118,9 +173,10 @@ public class RestClient {
             RequestBuilder rb = prepareRequest(RequestBuilder.get(getBaseURI(path)), queryParams, headers);
 
             try {
-                CloseableHttpResponse r = certClient.execute(rb.build());
+                CloseableHttpResponse r = execute(certClient, certificateContext, rb.build());
                 return r;
             } catch (Exception ex) {
+                Logger.getLogger(RestClient.class.getName()).log(Level.FINEST, "Request to " + serverUrl + " failed", ex);
                 return null;
             }
         }
@@ -132,10 +188,11 @@ public class RestClient {
         RequestBuilder rb = prepareRequest(RequestBuilder.put(getBaseURI(path)), queryParams, headers);
 
         try {
-            rb.setEntity(new StringEntity(requestEntity.toJson()));
-            CloseableHttpResponse r = client.execute(rb.build());
+            rb.setEntity(createEntity(requestEntity));
+            CloseableHttpResponse r = execute(rb.build());
             return r;
         } catch (Exception ex) {
+            Logger.getLogger(RestClient.class.getName()).log(Level.FINEST, "Request to " + serverUrl + " failed", ex);
             return null;
         }
     }
@@ -145,10 +202,11 @@ public class RestClient {
         RequestBuilder rb = prepareRequest(RequestBuilder.post(getBaseURI(path)), queryParams, headers);
 
         try {
-            rb.setEntity(new StringEntity(requestEntity.toJson()));
-            CloseableHttpResponse r = client.execute(rb.build());
+            rb.setEntity(createEntity(requestEntity));
+            CloseableHttpResponse r = execute(rb.build());
             return r;
         } catch (Exception ex) {
+            Logger.getLogger(RestClient.class.getName()).log(Level.FINEST, "Request to " + serverUrl + " failed", ex);
             return null;
         }
     }
@@ -162,10 +220,11 @@ public class RestClient {
             RequestBuilder rb = prepareRequest(RequestBuilder.post(getBaseURI(path)), queryParams, headers);
 
             try {
-                rb.setEntity(new StringEntity(requestEntity.toJson()));
-                CloseableHttpResponse r = certClient.execute(rb.build());
+                rb.setEntity(createEntity(requestEntity));
+                CloseableHttpResponse r = execute(certClient, certificateContext, rb.build());
                 return r;
             } catch (Exception ex) {
+                Logger.getLogger(RestClient.class.getName()).log(Level.FINEST, "Request to " + serverUrl + " failed", ex);
                 return null;
             }
         }
@@ -178,158 +237,293 @@ public class RestClient {
         RequestBuilder rb = prepareRequest(RequestBuilder.delete(getBaseURI(path)), queryParams, headers);
 
         try {
-            CloseableHttpResponse r = client.execute(rb.build());
+            CloseableHttpResponse r = execute(rb.build());
             return r;
         } catch (Exception ex) {
+            Logger.getLogger(RestClient.class.getName()).log(Level.FINEST, "Request to " + serverUrl + " failed", ex);
             return null;
         }
     }
 
-    private CloseableHttpClient getClientWithCertificate(CertificateContext certificateContext) {
-
-        CloseableHttpClient certClient = null;
-        if (certificateContext.getCertificatePath() != null || certificateContext.getCertificateData() != null) {
-
-            InputStream in;
-            KeyStore clientKs = null;
-            List<String> aliases = null;
-            char[] keyPass = certificateContext.getCertificatePassword();
-            String certificateAlias = certificateContext.getCertificateAlias();
-            try {
-                in = certificateContext.getCertificatePath() != null ? new FileInputStream(certificateContext.getCertificatePath()) 
-                        : new ByteArrayInputStream(certificateContext.getCertificateData());
-                clientKs = KeyStore.getInstance("JKS");
-                clientKs.load(in, keyPass);
-                aliases = Collections.list(clientKs.aliases());
-                in.close();
-            } catch (FileNotFoundException ex) {
-                Logger.getLogger(RestClient.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException ex) {
-                Logger.getLogger(RestClient.class.getName()).log(Level.SEVERE, null, ex);
-            }
+    /**
+     * Executes a request and throws the failure instead of returning null, so that the caller can
+     * tell transient connection failures from permanent ones such as TLS errors.
+     * 
+     * @param method HTTP method name.
+     * @param path Path relative to the base URL.
+     * @param queryParams Query parameters, or null for none.
+     * @param headers Request headers, or null for none.
+     * @param prebuiltHeaders Headers added as they are, e.g. an Authorization header whose value is
+     * kept in a buffer rather than a String, or null for none.
+     * @param requestEntity Request body, or null for none.
+     * @return The response.
+     * @throws IOException The request could not be made.
+     */
+    public CloseableHttpResponse execRequest(String method, String path, Map<String, String> queryParams, Map<String, String> headers,
+            Header[] prebuiltHeaders, JsonObject requestEntity) throws IOException {
+
+        RequestBuilder rb = prepareRequest(method, path, queryParams, headers, prebuiltHeaders);
+        if (requestEntity != null)
+            rb.setEntity(createEntity(requestEntity));
+        return execute(rb.build());
+    }
 
-            SSLConnectionSocketFactory sslsf = null; 
-            if (ignoreSsl) {
-                sslsf = new SSLConnectionSocketFactory(getSSLContext(clientKs, keyPass, certificateAlias == null ? aliases.get(0) : certificateAlias), NoopHostnameVerifier.INSTANCE);
-            } else if (validationCallback != null) {
-                sslsf = new SSLConnectionSocketFactory(getSSLContext(clientKs, keyPass, certificateAlias == null ? aliases.get(0) : certificateAlias), validationCallback); 
-            } else {
-                sslsf = new SSLConnectionSocketFactory(getSSLContext(clientKs, keyPass, certificateAlias == null ? aliases.get(0) : certificateAlias));
-            }
-            Registry<ConnectionSocketFactory> socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory> create().register("https", sslsf).build();
-            BasicHttpClientConnectionManager connectionManager = new BasicHttpClientConnectionManager(socketFactoryRegistry);
-            certClient = HttpClients.custom().setSSLSocketFactory(sslsf).setConnectionManager(connectionManager).build();
+    /**
+     * Executes a request on the non-blocking client. If the request can not be made the returned
+     * future completes exceptionally, cancelling it aborts the HTTP exchange.
+     * 
+     * @param method HTTP method name.
+     * @param path Path relative to the base URL.
+     * @param queryParams Query parameters, or null for none.
+     * @param headers Request headers, or null for none.
+     * @param prebuiltHeaders Headers added as they are, or null for none.
+     * @param requestEntity Request body, or null for none.
+     * @return Future that completes with the response.
+     */
+    public CompletableFuture<HttpResponse> execRequestAsync(String method, String path, Map<String, String> queryParams,
+            Map<String, String> headers, Header[] prebuiltHeaders, JsonObject requestEntity) {
+
+        RequestBuilder rb;
+        try {
+            rb = prepareRequest(method, path, queryParams, headers, prebuiltHeaders);
+            if (requestEntity != null)
+                rb.setEntity(createEntity(requestEntity));
+        } catch (Exception ex) {
+            CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
         }
-
-        return certClient;
+        return execAsync(rb);
     }
 
-    private RequestBuilder prepareRequest(RequestBuilder rb, Map<String, String> queryParams, Map<String, String> headers) {
-        
-        if (headers == null || !headers.containsKey(HttpHeaders.ACCEPT))
-            rb.addHeader(HttpHeaders.ACCEPT, "application/json");
-        if (headers == null || !headers.containsKey(HttpHeaders.CONTENT_TYPE))
-            rb.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
+    private RequestBuilder prepareRequest(String method, String path, Map<String, String> queryParams, Map<String, String> headers,
+            Header[] prebuiltHeaders) {
 
-        if (headers != null) {
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                rb.addHeader(entry.getKey(), entry.getValue());
-            }
+        URI uri;
+        try {
+            uri = new URI(serverUrl + "/" + path);
+        } catch (URISyntaxException ex) {
+            throw new IllegalArgumentException(String.format("Invalid URI %s/%s", serverUrl, path), ex);
         }
-        if (queryParams != null) {
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                rb.addParameter(entry.getKey(), entry.getValue());
+        RequestBuilder rb = prepareRequest(RequestBuilder.create(method).setUri(uri), queryParams, headers);
+        if (prebuiltHeaders != null) {
+            for (Header header : prebuiltHeaders) {
+                rb.addHeader(header);
             }
         }
         return rb;
     }
 
-    private SSLContext getSSLContext(KeyStore keyStorePath, char[] keyStorePassword, String alias) {
+    /**
+     * Executes a request whose URI and headers have already been built, e.g. by a prepared request.
+     * Unlike the other methods no default headers are added.
+     * 
+     * @param method HTTP method name.
+     * @param uri Absolute request URI including the query.
+     * @param headers All request headers.
+     * @param requestEntity Request body, or null for none.
+     * @return The response.
+     * @throws IOException The request could not be made.
+     */
+    public CloseableHttpResponse execRequest(String method, URI uri, Header[] headers, JsonObject requestEntity) throws IOException {
+
+        RequestBuilder rb = RequestBuilder.create(method).setUri(uri);
+        for (Header header : headers) {
+            rb.addHeader(header);
+        }
+        if (requestEntity != null)
+            rb.setEntity(createEntity(requestEntity));
+        return execute(rb.build());
+    }
 
-        TrustManager[] customTrustManager = null;
-        KeyManager[] customKeyManager = null;
+    public CompletableFuture<HttpResponse> execGETAsync(String path, Map<String, String> queryParams, Map<String, String> headers) {
 
-        if (ignoreSsl || validationCallback != null) {
-            customTrustManager = new TrustManager[]{new X509TrustManager() {
-                @Override
-                public void checkClientTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
-                }
+        RequestBuilder rb = prepareRequest(RequestBuilder.get(getBaseURI(path)), queryParams, headers);
+        return execAsync(rb);
+    }
 
-                @Override
-                public void checkServerTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
-                }
+    public CompletableFuture<HttpResponse> execGETAsync(String path, Map<String, String> queryParams, Map<String, String> headers,
+            CertificateContext certificateContext) {
 
-                @Override
-                public X509Certificate[] getAcceptedIssuers() {
-                    return new X509Certificate[0];
-                }
-            }};
-        }
-  
-        if (keyStorePath != null && keyStorePassword != null && alias != null) {
-            try {
-                KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
-                keyManagerFactory.init(keyStorePath, keyStorePassword);
-                customKeyManager = new KeyManager[]{new SafeguardExtendedX509KeyManager((X509KeyManager) keyManagerFactory.getKeyManagers()[0], alias)};
-            } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException ex) {
-                ex.printStackTrace();
-            }
-        }
+        RequestBuilder rb = prepareRequest(RequestBuilder.get(getBaseURI(path)), queryParams, headers);
+        return execAsync(rb, certificateContext);
+    }
+
+    public CompletableFuture<HttpResponse> execPUTAsync(String path, Map<String, String> queryParams, Map<String, String> headers, JsonObject requestEntity) {
+
+        RequestBuilder rb = prepareRequest(RequestBuilder.put(getBaseURI(path)), queryParams, headers);
 
-        SSLContext ctx = null;
         try {
-            ctx = SSLContext.getInstance("TLS");
-            ctx.init(customKeyManager, customTrustManager, new java.security.SecureRandom());
-        } catch (java.security.GeneralSecurityException ex) {
+            rb.setEntity(createEntity(requestEntity));
+        } catch (Exception ex) {
+            CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
         }
-        return ctx;
+        return execAsync(rb);
     }
 
-    class SafeguardExtendedX509KeyManager extends X509ExtendedKeyManager {
+    public CompletableFuture<HttpResponse> execPOSTAsync(String path, Map<String, String> queryParams, Map<String, String> headers, JsonObject requestEntity) {
 
-        X509KeyManager defaultKeyManager;
-        String alias;
+        RequestBuilder rb = prepareRequest(RequestBuilder.post(getBaseURI(path)), queryParams, headers);
 
-        public SafeguardExtendedX509KeyManager(X509KeyManager inKeyManager, String alias) {
-            this.defaultKeyManager = inKeyManager;
-            this.alias = alias;
+        try {
+            rb.setEntity(createEntity(requestEntity));
+        } catch (Exception ex) {
+            CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
         }
+        return execAsync(rb);
+    }
 
-        @Override
-        public String chooseEngineClientAlias(String[] keyType,
-                Principal[] issuers, SSLEngine engine) {
-            return alias;
-        }
+    public CompletableFuture<HttpResponse> execPOSTAsync(String path, Map<String, String> queryParams, Map<String, String> headers, JsonObject requestEntity,
+            CertificateContext certificateContext) {
 
-        @Override
-        public String chooseClientAlias(String[] strings, Principal[] prncpls, Socket socket) {
-            return alias;
-        }
+        RequestBuilder rb = prepareRequest(RequestBuilder.post(getBaseURI(path)), queryParams, headers);
 
-        @Override
-        public String[] getClientAliases(String string, Principal[] prncpls) {
-            return defaultKeyManager.getClientAliases(string, prncpls);
+        try {
+            rb.setEntity(createEntity(requestEntity));
+        } catch (Exception ex) {
+            CompletableFuture<HttpResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
         }
+        return execAsync(rb, certificateContext);
+    }
 
-        @Override
-        public String[] getServerAliases(String string, Principal[] prncpls) {
-            return defaultKeyManager.getServerAliases(string, prncpls);
-        }
+    public CompletableFuture<HttpResponse> execDELETEAsync(String path, Map<String, String> queryParams, Map<String, String> headers) {
+
+        RequestBuilder rb = prepareRequest(RequestBuilder.delete(getBaseURI(path)), queryParams, headers);
+        return execAsync(rb);
+    }
+
+
+    private CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
 
-        @Override
-        public String chooseServerAlias(String string, Principal[] prncpls, Socket socket) {
-            return defaultKeyManager.chooseServerAlias(string, prncpls, socket);
+        IHttp2Transport http2Transport = http2Enabled ? transport.getHttp2Transport() : null;
+        if (http2Transport != null)
+            return http2Transport.execute(request);
+        return transport.getClient().execute(request);
+    }
+
+    private CloseableHttpResponse execute(CloseableHttpClient certClient, CertificateContext certificateContext, HttpUriRequest request) throws IOException {
+
+        IHttp2Transport http2Transport = http2Enabled ? transport.getHttp2TransportWithCertificate(certificateContext) : null;
+        if (http2Transport != null)
+            return http2Transport.execute(request);
+        return certClient.execute(request);
+    }
+
+    private CompletableFuture<HttpResponse> execAsync(RequestBuilder rb) {
+        return execAsync(rb, null);
+    }
+
+    private CompletableFuture<HttpResponse> execAsync(RequestBuilder rb, CertificateContext certificateContext) {
+
+        IHttp2Transport http2Transport = null;
+        if (http2Enabled) {
+            http2Transport = certificateContext == null ? transport.getHttp2Transport()
+                    : transport.getHttp2TransportWithCertificate(certificateContext);
         }
+        if (http2Transport != null)
+            return http2Transport.executeAsync(rb.build());
+
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        try {
+            CloseableHttpAsyncClient asyncClient = certificateContext == null ? transport.getAsyncClient()
+                    : transport.getAsyncClientWithCertificate(certificateContext);
+            if (asyncClient == null)
+                throw new IOException("Unable to load the client certificate");
+            Future<HttpResponse> exchange = asyncClient.execute(rb.build(), new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    try {
+                        result.complete(decompressResponse(response));
+                    } catch (Exception ex) {
+                        result.completeExceptionally(ex);
+                    }
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    result.completeExceptionally(ex);
+                }
 
-        @Override
-        public X509Certificate[] getCertificateChain(String string) {
-            return defaultKeyManager.getCertificateChain(string);
+                @Override
+                public void cancelled() {
+                    result.cancel(false);
+                }
+            });
+            // Cancelling the returned future aborts the underlying HTTP exchange
+            result.whenComplete((response, ex) -> {
+                if (result.isCancelled())
+                    exchange.cancel(true);
+            });
+        } catch (Exception ex) {
+            result.completeExceptionally(ex);
         }
+        return result;
+    }
+
+    private CloseableHttpClient getClientWithCertificate(CertificateContext certificateContext) {
+        return transport.getClientWithCertificate(certificateContext);
+    }
+
+    /**
+     * Releases this client's reference to the shared appliance transport. The pooled connections
+     * are closed when the last client for the appliance is disposed.
+     */
+    public synchronized void dispose() {
+        if (disposed)
+            return;
+        disposed = true;
+        http2Enabled = false;
+        lease.release();
+    }
+
+    private HttpEntity createEntity(JsonObject requestEntity) throws IOException {
+
+        JsonEntity entity = new JsonEntity(requestEntity);
+        int threshold = requestCompressionThreshold;
+        if (threshold > 0 && entity.getContentLength() >= threshold)
+            return new GzipCompressingEntity(entity);
+        return entity;
+    }
+
+    /**
+     * Replaces a gzip or deflate encoded response entity with a streaming decompressing entity.
+     * The blocking Apache client does this itself, the async client and HTTP/2 transport do not.
+     * 
+     * @param response Response to decompress.
+     * @return The same response.
+     * @throws HttpException Unsupported content encoding.
+     * @throws IOException Error reading the response.
+     */
+    public static HttpResponse decompressResponse(HttpResponse response) throws HttpException, IOException {
+        new ResponseContentEncoding().process(response, HttpClientContext.create());
+        return response;
+    }
+
+    private RequestBuilder prepareRequest(RequestBuilder rb, Map<String, String> queryParams, Map<String, String> headers) {
+        
+        if (headers == null || !headers.containsKey(HttpHeaders.ACCEPT))
+            rb.addHeader(HttpHeaders.ACCEPT, "application/json");
+        if (headers == null || !headers.containsKey(HttpHeaders.ACCEPT_ENCODING))
+            rb.addHeader(HttpHeaders.ACCEPT_ENCODING, ACCEPT_ENCODING);
+        if (headers == null || !headers.containsKey(HttpHeaders.CONTENT_TYPE))
+            rb.addHeader(HttpHeaders.CONTENT_TYPE, "application/json");
 
-        @Override
-        public PrivateKey getPrivateKey(String string) {
-            return defaultKeyManager.getPrivateKey(string);
+        if (headers != null) {
+            for (Map.Entry<String, String> entry : headers.entrySet()) {
+                rb.addHeader(entry.getKey(), entry.getValue());
+            }
         }
+        if (queryParams != null) {
+            for (Map.Entry<String, String> entry : queryParams.entrySet()) {
+                rb.addParameter(entry.getKey(), entry.getValue());
+            }
+        }
+        return rb;
     }
-    
 }
@@ -0,0 +1,421 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import com.oneidentity.safeguard.safeguardjava.data.CertificateContext;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.CertificateException;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509ExtendedTrustManager;
+import javax.net.ssl.X509KeyManager;
+
+/**
+ * Provides the SSLContext used to connect to an appliance. The JSSE caches TLS sessions (and
+ * session tickets) per SSLContext, so handing the same context to the REST clients, the SignalR
+ * negotiate requests and the SignalR websocket lets every connection to the appliance resume
+ * the session of the first full handshake instead of repeating the key exchange and client
+ * certificate authentication.
+ * <p>
+ * Contexts are cached per appliance address, trust mode and client certificate, a keystore file
+ * is identified by its path, modification time and size. The least recently used context is
+ * discarded when more than {@link #getMaxContexts()} are cached.
+ */
+public final class TlsContextProvider {
+
+    public static final int DEFAULT_SESSION_CACHE_SIZE = 256;
+    public static final int DEFAULT_SESSION_TIMEOUT = 3600;
+    public static final int DEFAULT_MAX_CONTEXTS = 64;
+
+    private static int sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+    private static int sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+    private static int maxContexts = DEFAULT_MAX_CONTEXTS;
+
+    private static final Map<String, SSLContext> contexts = new LinkedHashMap<String, SSLContext>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest) {
+            return size() > maxContexts;
+        }
+    };
+
+    // Random key of the process for the HMAC of certificate passwords in the context keys
+    private static final byte[] keySecret = new byte[32];
+
+    static {
+        new SecureRandom().nextBytes(keySecret);
+    }
+
+    private TlsContextProvider() {
+    }
+
+    /**
+     * Gets the number of TLS sessions cached by each context.
+     *
+     * @return Session cache size, zero means no limit.
+     */
+    public static synchronized int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    /**
+     * Gets the number of seconds a cached TLS session may be resumed.
+     *
+     * @return Session timeout in seconds, zero means no limit.
+     */
+    public static synchronized int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    /**
+     * Gets the maximum number of contexts that are cached.
+     *
+     * @return Maximum number of cached contexts.
+     */
+    public static synchronized int getMaxContexts() {
+        return maxContexts;
+    }
+
+    /**
+     * Configures the TLS session cache of every context, including those already created.
+     *
+     * @param cacheSize Number of TLS sessions cached by each context, zero means no limit.
+     * @param timeout Number of seconds a cached TLS session may be resumed, zero means no limit.
+     */
+    public static synchronized void setSessionCache(int cacheSize, int timeout) {
+        sessionCacheSize = cacheSize;
+        sessionTimeout = timeout;
+        for (SSLContext ctx : contexts.values()) {
+            configureSessionCache(ctx);
+        }
+    }
+
+    /**
+     * Sets the maximum number of contexts that are cached.
+     *
+     * @param max Maximum number of cached contexts.
+     */
+    public static synchronized void setMaxContexts(int max) {
+        maxContexts = max;
+    }
+
+    /**
+     * Discards all cached contexts, the next connection to each appliance does a full handshake.
+     */
+    public static synchronized void clear() {
+        contexts.clear();
+    }
+
+    /**
+     * Gets the context used to connect to an appliance without a client certificate.
+     *
+     * @param serverUrl Any URL of the appliance, only the address is used.
+     * @param trustAll Whether the server certificate is accepted without validation, either because
+     *        validation is ignored or because it is done by a HostnameVerifier callback.
+     * @return The shared SSLContext, or null if it could not be created.
+     */
+    public static SSLContext getContext(String serverUrl, boolean trustAll) {
+        return getContext(serverUrl, trustAll, (CertificateContext)null);
+    }
+
+    /**
+     * Gets the context used to connect to an appliance with a client certificate from a keystore file.
+     *
+     * @param serverUrl Any URL of the appliance, only the address is used.
+     * @param trustAll Whether the server certificate is accepted without validation.
+     * @param certificatePath Path of the keystore file, or null for no client certificate.
+     * @param certificatePassword Keystore password.
+     * @param certificateAlias Alias of the client certificate, or null for the first entry.
+     * @return The shared SSLContext, or null if it could not be created.
+     */
+    public static SSLContext getContext(String serverUrl, boolean trustAll, String certificatePath,
+            char[] certificatePassword, String certificateAlias) {
+        if (certificatePath == null || certificatePassword == null)
+            return getContext(serverUrl, trustAll);
+        return getContext(serverUrl, trustAll, new CertificateContext(certificateAlias, certificatePath, null, certificatePassword));
+    }
+
+    /**
+     * Gets the context used to connect to an appliance with a client certificate.
+     *
+     * @param serverUrl Any URL of the appliance, only the address is used.
+     * @param trustAll Whether the server certificate is accepted without validation.
+     * @param certificateContext Client certificate, or null for no client certificate.
+     * @return The shared SSLContext, or null if it could not be created.
+     */
+    public static SSLContext getContext(String serverUrl, boolean trustAll, CertificateContext certificateContext) {
+
+        String key = getAuthority(serverUrl) + "|trustAll:" + trustAll;
+        if (certificateContext != null) {
+            String certificateKey = getCertificateKey(certificateContext);
+            if (certificateKey == null)
+                return null;
+            // Contexts of a replaced keystore are no longer used and age out of the cache
+            key += "|" + certificateKey + "|" + getCertificateVersion(certificateContext);
+        }
+
+        synchronized (TlsContextProvider.class) {
+            SSLContext ctx = contexts.get(key);
+            if (ctx != null)
+                return ctx;
+        }
+
+        // Loading the keystore is slow, so it is done outside of the lock. If two threads race
+        // the first context to be cached wins so all callers share its session cache.
+        SSLContext ctx = certificateContext == null ? createContext(trustAll, null, null, null)
+                : createContextWithCertificate(trustAll, certificateContext);
+        if (ctx == null)
+            return null;
+
+        synchronized (TlsContextProvider.class) {
+            SSLContext existing = contexts.get(key);
+            if (existing != null)
+                return existing;
+            configureSessionCache(ctx);
+            contexts.put(key, ctx);
+            Logger.getLogger(TlsContextProvider.class.getName()).log(Level.FINEST, "Created TLS context for {0}", getAuthority(serverUrl));
+            return ctx;
+        }
+    }
+
+    /**
+     * Gets a string that identifies the version of a client certificate. The modification time
+     * and size of a keystore file change when it is replaced in place, so a rotated certificate
+     * is loaded again instead of using the one loaded before.
+     *
+     * @param certificateContext Client certificate.
+     * @return The version, empty for a certificate that is not read from a file.
+     */
+    static String getCertificateVersion(CertificateContext certificateContext) {
+        if (certificateContext.getCertificatePath() == null)
+            return "";
+        File file = new File(certificateContext.getCertificatePath());
+        return "modified:" + file.lastModified() + "|size:" + file.length();
+    }
+
+    /**
+     * Gets a string that identifies a client certificate and its password, without containing
+     * either. A keystore file is identified by its path, see {@link #getCertificateVersion}.
+     *
+     * @param certificateContext Client certificate.
+     * @return The identifying string, or null if the certificate context is empty.
+     */
+    static String getCertificateKey(CertificateContext certificateContext) {
+
+        String certificateKey = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (certificateContext.getCertificatePath() != null) {
+                certificateKey = "path:" + certificateContext.getCertificatePath();
+            } else if (certificateContext.getCertificateData() != null) {
+                certificateKey = "data:" + Base64.getEncoder().encodeToString(digest.digest(certificateContext.getCertificateData()));
+            }
+            if (certificateKey != null && certificateContext.getCertificateAlias() != null) {
+                certificateKey += "|alias:" + certificateContext.getCertificateAlias();
+            }
+            // Contexts are shared process-wide, so the password is part of the identity to prevent
+            // a caller without the correct password from using an already loaded client certificate.
+            // It is kept as an HMAC under a random key of the process, which unlike a plain digest
+            // cannot be checked against guessed passwords without that key.
+            if (certificateKey != null && certificateContext.getCertificatePassword() != null) {
+                ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(certificateContext.getCertificatePassword()));
+                byte[] password = Arrays.copyOf(bytes.array(), bytes.limit());
+                Arrays.fill(bytes.array(), (byte) 0);
+                try {
+                    Mac mac = Mac.getInstance("HmacSHA256");
+                    mac.init(new SecretKeySpec(keySecret, "HmacSHA256"));
+                    certificateKey += "|secret:" + Base64.getEncoder().encodeToString(mac.doFinal(password));
+                } finally {
+                    Arrays.fill(password, (byte) 0);
+                }
+            }
+        } catch (GeneralSecurityException ex) {
+            Logger.getLogger(TlsContextProvider.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        return certificateKey;
+    }
+
+    static String getAuthority(String serverUrl) {
+        try {
+            String authority = new URI(serverUrl).getRawAuthority();
+            return authority == null ? serverUrl : authority.toLowerCase();
+        } catch (URISyntaxException ex) {
+            return serverUrl;
+        }
+    }
+
+    private static void configureSessionCache(SSLContext ctx) {
+        SSLSessionContext sessionContext = ctx.getClientSessionContext();
+        if (sessionContext != null) {
+            sessionContext.setSessionCacheSize(sessionCacheSize);
+            sessionContext.setSessionTimeout(sessionTimeout);
+        }
+    }
+
+    private static SSLContext createContextWithCertificate(boolean trustAll, CertificateContext certificateContext) {
+
+        KeyStore clientKs = null;
+        List<String> aliases = null;
+        char[] keyPass = certificateContext.getCertificatePassword();
+        String certificateAlias = certificateContext.getCertificateAlias();
+        try (InputStream in = certificateContext.getCertificatePath() != null ? new FileInputStream(certificateContext.getCertificatePath())
+                : new ByteArrayInputStream(certificateContext.getCertificateData())) {
+            clientKs = KeyStore.getInstance("JKS");
+            clientKs.load(in, keyPass);
+            aliases = Collections.list(clientKs.aliases());
+        } catch (FileNotFoundException ex) {
+            Logger.getLogger(TlsContextProvider.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException ex) {
+            Logger.getLogger(TlsContextProvider.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        if (certificateAlias == null && aliases.isEmpty())
+            return null;
+
+        return createContext(trustAll, clientKs, keyPass, certificateAlias == null ? aliases.get(0) : certificateAlias);
+    }
+
+    private static SSLContext createContext(boolean trustAll, KeyStore keyStorePath, char[] keyStorePassword, String alias) {
+
+        TrustManager[] customTrustManager = null;
+        KeyManager[] customKeyManager = null;
+
+        if (trustAll) {
+            // An extended trust manager is used so that the JSSE does not add its own endpoint
+            // identification when the context is used by the HTTP/2 transport.
+            customTrustManager = new TrustManager[]{new X509ExtendedTrustManager() {
+                @Override
+                public void checkClientTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] arg0, String arg1) throws CertificateException {
+                }
+
+                @Override
+                public void checkClientTrusted(X509Certificate[] arg0, String arg1, Socket arg2) throws CertificateException {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] arg0, String arg1, Socket arg2) throws CertificateException {
+                }
+
+                @Override
+                public void checkClientTrusted(X509Certificate[] arg0, String arg1, SSLEngine arg2) throws CertificateException {
+                }
+
+                @Override
+                public void checkServerTrusted(X509Certificate[] arg0, String arg1, SSLEngine arg2) throws CertificateException {
+                }
+
+                @Override
+                public X509Certificate[] getAcceptedIssuers() {
+                    return new X509Certificate[0];
+                }
+            }};
+        }
+
+        if (keyStorePath != null && keyStorePassword != null && alias != null) {
+            try {
+                KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
+                keyManagerFactory.init(keyStorePath, keyStorePassword);
+                customKeyManager = new KeyManager[]{new SafeguardExtendedX509KeyManager((X509KeyManager) keyManagerFactory.getKeyManagers()[0], alias)};
+            } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException ex) {
+                Logger.getLogger(TlsContextProvider.class.getName()).log(Level.SEVERE, null, ex);
+                return null;
+            }
+        }
+
+        SSLContext ctx = null;
+        try {
+            ctx = SSLContext.getInstance("TLS");
+            ctx.init(customKeyManager, customTrustManager, new java.security.SecureRandom());
+        } catch (java.security.GeneralSecurityException ex) {
+            Logger.getLogger(TlsContextProvider.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
+        return ctx;
+    }
+
+    static class SafeguardExtendedX509KeyManager extends X509ExtendedKeyManager {
+
+        X509KeyManager defaultKeyManager;
+        String alias;
+
+        public SafeguardExtendedX509KeyManager(X509KeyManager inKeyManager, String alias) {
+            this.defaultKeyManager = inKeyManager;
+            this.alias = alias;
+        }
+
+        @Override
+        public String chooseEngineClientAlias(String[] keyType,
+                Principal[] issuers, SSLEngine engine) {
+            return alias;
+        }
+
+        @Override
+        public String chooseClientAlias(String[] strings, Principal[] prncpls, Socket socket) {
+            return alias;
+        }
+
+        @Override
+        public String[] getClientAliases(String string, Principal[] prncpls) {
+            return defaultKeyManager.getClientAliases(string, prncpls);
+        }
+
+        @Override
+        public String[] getServerAliases(String string, Principal[] prncpls) {
+            return defaultKeyManager.getServerAliases(string, prncpls);
+        }
+
+        @Override
+        public String chooseServerAlias(String string, Principal[] prncpls, Socket socket) {
+            return defaultKeyManager.chooseServerAlias(string, prncpls, socket);
+        }
+
+        @Override
+        public X509Certificate[] getCertificateChain(String string) {
+            return defaultKeyManager.getCertificateChain(string);
+        }
+
+        @Override
+        public PrivateKey getPrivateKey(String string) {
+            return defaultKeyManager.getPrivateKey(string);
+        }
+    }
+}
@@ -6,36 +6,15 @@ See License.txt in the project root for license information.
 
 package microsoft.aspnet.signalr.client.http.java;
 
-import com.oneidentity.safeguard.safeguardjava.restclient.RestClient;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import com.oneidentity.safeguard.safeguardjava.restclient.TlsContextProvider;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
-import java.net.Socket;
 import java.net.URL;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.Principal;
-import java.security.PrivateKey;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Collections;
-import java.util.List;
 import java.util.Map;
-import java.util.logging.Level;
 import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509ExtendedKeyManager;
-import javax.net.ssl.X509KeyManager;
-import javax.net.ssl.X509TrustManager;
 
 import microsoft.aspnet.signalr.client.LogLevel;
 import microsoft.aspnet.signalr.client.Logger;
@@ -62,24 +41,6 @@ class NetworkRunnable implements Runnable {
 
     Object mCloseLock = new Object();
     
-    static final TrustManager[] trustAllCerts = new TrustManager[]{
-        new X509TrustManager() {
-            @Override
-            public void checkClientTrusted(java.security.cert.X509Certificate[] chain, String authType) throws CertificateException {
-            }
-
-            @Override
-            public void checkServerTrusted(java.security.cert.X509Certificate[] chain, String authType) throws CertificateException {
-            }
-
-            @Override
-            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                return new java.security.cert.X509Certificate[]{};
-            }
-        }
-    };
-    
-
     /**
      * Initializes the network runnable
      * 
@@ -222,7 +183,12 @@ class NetworkRunnable implements Runnable {
         HttpsURLConnection connection = (HttpsURLConnection) url.openConnection();
         connection.setConnectTimeout(15 * 1000);
         connection.setRequestMethod(request.getVerb());
-        SSLContext sslContext = getSSLContext(certificatePath, certificatePassword, certificateAlias, ignoreSsl);
+        // The context is shared with the REST clients of the appliance so TLS sessions are resumed
+        SSLContext sslContext = TlsContextProvider.getContext(request.getUrl(), ignoreSsl, certificatePath, 
+                certificatePassword, certificateAlias);
+        if (sslContext == null) {
+            throw new IOException("Unable to create the TLS context for " + url.getHost());
+        }
         connection.setSSLSocketFactory(sslContext.getSocketFactory());
 
         Map<String, String> headers = request.getHeaders();
@@ -241,99 +207,4 @@ class NetworkRunnable implements Runnable {
 
         return connection;
     }
-    
-    static SSLContext getSSLContext(String keyStorePath, char[] keyStorePassword, String alias, boolean ignoreSsl) {
-
-        TrustManager[] customTrustManager = null;
-        KeyManager[] customKeyManager = null;
-
-        if (ignoreSsl) {
-            customTrustManager = trustAllCerts;
-        }
-
-        if (keyStorePath != null && keyStorePassword != null) {
-            InputStream in;
-            KeyStore clientKs = null;
-            List<String> aliases = null;
-            try {
-                in = new FileInputStream(keyStorePath);
-                clientKs = KeyStore.getInstance("JKS");
-                clientKs.load(in, keyStorePassword);
-                aliases = Collections.list(clientKs.aliases());
-                in.close();
-                if (alias == null && aliases != null && aliases.size() > 0)
-                    alias = aliases.get(0);
-            } catch (FileNotFoundException ex) {
-                java.util.logging.Logger.getLogger(RestClient.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException ex) {
-                java.util.logging.Logger.getLogger(RestClient.class.getName()).log(Level.SEVERE, null, ex);
-            }
-        
-            if (alias != null) {
-                try {
-                    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
-                    keyManagerFactory.init(clientKs, keyStorePassword);
-                    customKeyManager = new KeyManager[]{new ExtendedX509KeyManager((X509KeyManager) keyManagerFactory.getKeyManagers()[0], alias)};
-                } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException ex) {
-                    ex.printStackTrace();
-                }
-            }
-        }
-
-        SSLContext ctx = null;
-        try {
-            ctx = SSLContext.getInstance("TLS");
-            ctx.init(customKeyManager, customTrustManager, new java.security.SecureRandom());
-        } catch (java.security.GeneralSecurityException ex) {
-        }
-        return ctx;
-    }
-
-    static class ExtendedX509KeyManager extends X509ExtendedKeyManager {
-
-        X509KeyManager defaultKeyManager;
-        String alias;
-
-        public ExtendedX509KeyManager(X509KeyManager inKeyManager, String alias) {
-            this.defaultKeyManager = inKeyManager;
-            this.alias = alias;
-        }
-
-        @Override
-        public String chooseEngineClientAlias(String[] keyType,
-                Principal[] issuers, SSLEngine engine) {
-            return alias;
-        }
-
-        @Override
-        public String chooseClientAlias(String[] strings, Principal[] prncpls, Socket socket) {
-            return alias;
-        }
-
-        @Override
-        public String[] getClientAliases(String string, Principal[] prncpls) {
-            return defaultKeyManager.getClientAliases(string, prncpls);
-        }
-
-        @Override
-        public String[] getServerAliases(String string, Principal[] prncpls) {
-            return defaultKeyManager.getServerAliases(string, prncpls);
-        }
-
-        @Override
-        public String chooseServerAlias(String string, Principal[] prncpls, Socket socket) {
-            return defaultKeyManager.chooseServerAlias(string, prncpls, socket);
-        }
-
-        @Override
-        public X509Certificate[] getCertificateChain(String string) {
-            return defaultKeyManager.getCertificateChain(string);
-        }
-
-        @Override
-        public PrivateKey getPrivateKey(String string) {
-            return defaultKeyManager.getPrivateKey(string);
-        }
-    }
-    
 }
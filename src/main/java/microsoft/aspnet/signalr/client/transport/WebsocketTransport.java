@@ -12,31 +12,8 @@ import java.net.URISyntaxException;
 import java.net.URLEncoder;
 
 import com.google.gson.Gson;
-import com.oneidentity.safeguard.safeguardjava.restclient.RestClient;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.Principal;
-import java.security.PrivateKey;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.Collections;
-import java.util.List;
-import java.util.logging.Level;
-import javax.net.ssl.KeyManager;
-import javax.net.ssl.KeyManagerFactory;
+import com.oneidentity.safeguard.safeguardjava.restclient.TlsContextProvider;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLEngine;
-import javax.net.ssl.TrustManager;
-import javax.net.ssl.X509ExtendedKeyManager;
-import javax.net.ssl.X509KeyManager;
-import javax.net.ssl.X509TrustManager;
 
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
@@ -57,24 +34,6 @@ public class WebsocketTransport extends HttpClientTransport {
     private static final Gson gson = new Gson();
     WebSocketClient mWebSocketClient;
     private UpdateableCancellableFuture<Void> mConnectionFuture;
-    final TrustManager[] trustAllCerts = new TrustManager[]{
-        new X509TrustManager() {
-            @Override
-            public void checkClientTrusted(java.security.cert.X509Certificate[] chain, String authType) throws CertificateException {
-            }
-
-            @Override
-            public void checkServerTrusted(java.security.cert.X509Certificate[] chain, String authType) throws CertificateException {
-            }
-
-            @Override
-            public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                return new java.security.cert.X509Certificate[]{};
-            }
-        }
-    };
-    
-    
     private static final String HTTP = "http";
     private static final String HTTPS = "https";
     private static final String WS = "ws";
@@ -159,7 +118,13 @@ public class WebsocketTransport extends HttpClientTransport {
                 mWebSocketClient.close();
             }
         };
-        SSLContext sslContext = getSSLContext(null);
+        // The context is shared with the REST clients of the appliance so TLS sessions are resumed
+        SSLContext sslContext = TlsContextProvider.getContext(connection.getUrl(), mIgnoreSsl, mClientCertificatePath, 
+                mClientCertificatePassword, mClientCertificateAlias);
+        if (sslContext == null) {
+            mConnectionFuture.triggerError(new IllegalStateException("Unable to create the TLS context for " + uri.getHost()));
+            return mConnectionFuture;
+        }
         mWebSocketClient.setSocketFactory(sslContext.getSocketFactory());
         mWebSocketClient.connect();
 
@@ -197,100 +162,4 @@ public class WebsocketTransport extends HttpClientTransport {
 
         return url;
     }
-    
-    private SSLContext getSSLContext(String alias) {
-
-        TrustManager[] customTrustManager = null;
-        KeyManager[] customKeyManager = null;
-
-        if (mIgnoreSsl) {
-            customTrustManager = trustAllCerts;
-        }
-
-        if (mClientCertificatePath != null && mClientCertificatePassword != null) {
-            InputStream in;
-            KeyStore clientKs = null;
-            List<String> aliases = null;
-            try {
-                in = new FileInputStream(mClientCertificatePath);
-                clientKs = KeyStore.getInstance("JKS");
-                clientKs.load(in, mClientCertificatePassword);
-                aliases = Collections.list(clientKs.aliases());
-                in.close();
-                if (alias == null && aliases != null && aliases.size() > 0) {
-                    alias = aliases.get(0);
-                }
-            } catch (FileNotFoundException ex) {
-                java.util.logging.Logger.getLogger(RestClient.class.getName()).log(Level.SEVERE, null, ex);
-            } catch (KeyStoreException | NoSuchAlgorithmException | CertificateException | IOException ex) {
-                java.util.logging.Logger.getLogger(RestClient.class.getName()).log(Level.SEVERE, null, ex);
-            }
-
-            if (alias != null) {
-                try {
-                    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance("SunX509");
-                    keyManagerFactory.init(clientKs, mClientCertificatePassword);
-                    customKeyManager = new KeyManager[]{new ExtendedX509KeyManager((X509KeyManager) keyManagerFactory.getKeyManagers()[0], alias)};
-                } catch (NoSuchAlgorithmException | KeyStoreException | UnrecoverableKeyException ex) {
-                    ex.printStackTrace();
-                }
-            }
-        }
-
-        SSLContext ctx = null;
-        try {
-            ctx = SSLContext.getInstance("TLS");
-            ctx.init(customKeyManager, customTrustManager, new java.security.SecureRandom());
-        } catch (java.security.GeneralSecurityException ex) {
-        }
-        return ctx;
-    }
-
-    class ExtendedX509KeyManager extends X509ExtendedKeyManager {
-
-        X509KeyManager defaultKeyManager;
-        String alias;
-
-        public ExtendedX509KeyManager(X509KeyManager inKeyManager, String alias) {
-            this.defaultKeyManager = inKeyManager;
-            this.alias = alias;
-        }
-
-        @Override
-        public String chooseEngineClientAlias(String[] keyType,
-                Principal[] issuers, SSLEngine engine) {
-            return alias;
-        }
-
-        @Override
-        public String chooseClientAlias(String[] strings, Principal[] prncpls, Socket socket) {
-            return alias;
-        }
-
-        @Override
-        public String[] getClientAliases(String string, Principal[] prncpls) {
-            return defaultKeyManager.getClientAliases(string, prncpls);
-        }
-
-        @Override
-        public String[] getServerAliases(String string, Principal[] prncpls) {
-            return defaultKeyManager.getServerAliases(string, prncpls);
-        }
-
-        @Override
-        public String chooseServerAlias(String string, Principal[] prncpls, Socket socket) {
-            return defaultKeyManager.chooseServerAlias(string, prncpls, socket);
-        }
-
-        @Override
-        public X509Certificate[] getCertificateChain(String string) {
-            return defaultKeyManager.getCertificateChain(string);
-        }
-
-        @Override
-        public PrivateKey getPrivateKey(String string) {
-            return defaultKeyManager.getPrivateKey(string);
-        }
-    }
-    
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Creates HTTP/2 transports backed by the java.net.http client. This version of the class
+ * is packaged under META-INF/versions/11 of the multi-release jar and replaces the Java 8
+ * version, which does not support HTTP/2.
+ */
+public final class Http2TransportFactory {
+
+    private Http2TransportFactory() {
+    }
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    public static IHttp2Transport create(SSLContext sslContext) {
+        return new JavaHttp2Transport(sslContext);
+    }
+}
@@ -0,0 +1,159 @@
+package com.oneidentity.safeguard.safeguardjava.restclient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.ProtocolVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+
+class JavaHttp2Transport implements IHttp2Transport {
+
+    // Headers that java.net.http manages itself and refuses to have set on a request
+    private static final TreeSet<String> RESTRICTED_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        RESTRICTED_HEADERS.addAll(Arrays.asList("Connection", "Content-Length", "Expect", "Host", "Upgrade"));
+    }
+
+    private volatile HttpClient client;
+
+    JavaHttp2Transport(SSLContext sslContext) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (sslContext != null)
+            builder.sslContext(sslContext);
+        client = builder.build();
+    }
+
+    @Override
+    public CloseableHttpResponse execute(HttpUriRequest request) throws IOException {
+        try {
+            HttpResponse<InputStream> response = getClient().send(toJavaRequest(request), HttpResponse.BodyHandlers.ofInputStream());
+            InputStreamEntity entity = new InputStreamEntity(response.body(), getContentLength(response.headers()));
+            return (CloseableHttpResponse) RestClient.decompressResponse(toApacheResponse(response, entity));
+        } catch (HttpException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(ex.getMessage());
+        }
+    }
+
+    @Override
+    public CompletableFuture<org.apache.http.HttpResponse> executeAsync(HttpUriRequest request) {
+        HttpRequest javaRequest;
+        HttpClient current;
+        try {
+            javaRequest = toJavaRequest(request);
+            current = getClient();
+        } catch (IOException | RuntimeException ex) {
+            CompletableFuture<org.apache.http.HttpResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
+        }
+        return current.sendAsync(javaRequest, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    try {
+                        return RestClient.decompressResponse(toApacheResponse(response, new ByteArrayEntity(response.body())));
+                    } catch (HttpException | IOException ex) {
+                        throw new CompletionException(ex);
+                    }
+                });
+    }
+
+    /**
+     * Shuts the client down on Java 21 and later, which abort its requests and stop its selector
+     * thread. Before Java 21 java.net.http clients cannot be closed, the reference is dropped and
+     * the connections and selector thread are only released once the client is garbage collected.
+     */
+    @Override
+    public void close() {
+        HttpClient closing = client;
+        client = null;
+        if (closing == null)
+            return;
+        try {
+            HttpClient.class.getMethod("shutdownNow").invoke(closing);
+        } catch (NoSuchMethodException ex) {
+            // Java 11 to 20
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            Logger.getLogger(JavaHttp2Transport.class.getName()).log(Level.FINEST, "Error shutting down HTTP/2 client", ex);
+        }
+    }
+
+    private HttpClient getClient() throws IOException {
+        HttpClient current = client;
+        if (current == null)
+            throw new IOException("The HTTP/2 transport has been closed");
+        return current;
+    }
+
+    private HttpRequest toJavaRequest(HttpUriRequest request) throws IOException {
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null) {
+                // Compressing entities can only be written, not read, so the body is serialized with writeTo
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                entity.writeTo(buffer);
+                body = HttpRequest.BodyPublishers.ofByteArray(buffer.toByteArray());
+            }
+        }
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(request.getURI()).method(request.getMethod(), body);
+        for (Header header : request.getAllHeaders()) {
+            if (!RESTRICTED_HEADERS.contains(header.getName()))
+                builder.header(header.getName(), header.getValue());
+        }
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && entity.getContentEncoding() != null && !request.containsHeader(entity.getContentEncoding().getName()))
+                builder.header(entity.getContentEncoding().getName(), entity.getContentEncoding().getValue());
+        }
+        return builder.build();
+    }
+
+    private Http2Response toApacheResponse(HttpResponse<?> response, AbstractHttpEntity entity) {
+        ProtocolVersion version = response.version() == HttpClient.Version.HTTP_2
+                ? Http2Response.HTTP_2 : new ProtocolVersion("HTTP", 1, 1);
+        Http2Response result = new Http2Response(version, response.statusCode());
+        for (Map.Entry<String, List<String>> header : response.headers().map().entrySet()) {
+            // Skip HTTP/2 pseudo headers such as :status
+            if (header.getKey().startsWith(":"))
+                continue;
+            for (String value : header.getValue())
+                result.addHeader(header.getKey(), value);
+        }
+        response.headers().firstValue("Content-Type").ifPresent(entity::setContentType);
+        response.headers().firstValue("Content-Encoding").ifPresent(entity::setContentEncoding);
+        result.setEntity(entity);
+        return result;
+    }
+
+    private long getContentLength(HttpHeaders headers) {
+        return headers.firstValueAsLong("Content-Length").orElse(-1L);
+    }
+}